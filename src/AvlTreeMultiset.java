@@ -0,0 +1,341 @@
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+/**
+ * Self-balancing (AVL) variant of the counted-node binary search tree.
+ *
+ * Nodes carry the same value/count pair as BstMultiset, but every insert and
+ * delete rebalances the path back to the root, so the depth stays O(log n)
+ * whatever the insertion order.  Sorted and reverse-sorted start files no
+ * longer degenerate into a linked chain.
+ *
+ * @param T Type of elements that the multiset can hold.
+ */
+public class AvlTreeMultiset<T extends Comparable<T>> extends Multiset<T> implements Instrumentable {
+	/** Reference to root of tree. */
+	protected Node<T> root;
+	/** Number of distinct values (nodes) in the tree. */
+	protected int size;
+	/** Cost counters, null unless instrumented. */
+	protected CostCounters counters;
+
+	public AvlTreeMultiset() {
+		root = null;
+		size = 0;
+	} // end of AvlTreeMultiset()
+
+	public void add(T item) {
+		// existing element only needs its count bumped, no restructuring
+		Node<T> node = find(item);
+		if (node != null) {
+			node.count++;
+		} else {
+			root = insert(visit(root), item);
+		}
+	} // end of add()
+
+	public int search(T item) {
+		Node<T> node = find(item);
+		return node == null ? 0 : node.count;
+	} // end of search()
+
+	public void removeOne(T item) {
+		Node<T> node = find(item);
+		if (node != null) {
+			node.count--;
+			if (node.count == 0) {
+				root = delete(visit(root), item);
+			}
+		}
+	} // end of removeOne()
+
+	public void removeAll(T item) {
+		if (root != null) {
+			root = delete(visit(root), item);
+		}
+	} // end of removeAll()
+
+	/**
+	 * In-order walk with an explicit stack.
+	 */
+	public EntryIterator<T> entryIterator() {
+		return new EntryIterator<T>() {
+			private final ArrayDeque<Node<T>> stack = new ArrayDeque<Node<T>>();
+			private Node<T> point = root;
+			private int count = 0;
+
+			public boolean hasNext() {
+				return point != null || !stack.isEmpty();
+			}
+
+			public T next() {
+				while (point != null) {
+					stack.push(point);
+					point = point.left;
+				}
+				if (stack.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				Node<T> top = stack.pop();
+				point = top.right;
+				count = top.count;
+				return top.value;
+			}
+
+			public int count() {
+				return count;
+			}
+		};
+	} // end of entryIterator()
+
+	/**
+	 * Prints the entries in order, or a line saying so if there are none.
+	 */
+	public void print(PrintStream out) {
+		if (root != null) {
+			super.print(out);
+		} else {
+			out.println("Structure is empty");
+		}
+	} // end of print()
+
+	/**
+	 * Large batches are merged with the in-order contents and the tree is
+	 * rebuilt in O(n); small batches into a big tree are added one by one.
+	 */
+	public void addAll(Collection<? extends T> items) {
+		if (items.size() * 4 < size) {
+			super.addAll(items);
+		} else {
+			rebuild(inOrder().mergeAdd(SortedEntries.sortedArray(items)));
+		}
+	} // end of addAll()
+
+	public void removeAll(Collection<? extends T> items) {
+		if (items.size() * 4 < size) {
+			super.removeAll(items);
+		} else {
+			rebuild(inOrder().mergeRemove(SortedEntries.sortedArray(items)));
+		}
+	} // end of removeAll()
+
+	public boolean isSorted() {
+		return true;
+	} // end of isSorted()
+
+	/**
+	 * Sorted entries restored into an empty tree are built straight into a
+	 * balanced tree in O(n) instead of being inserted one by one.
+	 */
+	protected void restoreEntries(SortedEntries<T> entries, boolean sorted) {
+		if (sorted && root == null) {
+			rebuild(entries);
+		} else {
+			super.restoreEntries(entries, sorted);
+		}
+	} // end of restoreEntries()
+
+	/**
+	 * Iterative lookup, one comparison per level.
+	 */
+	private Node<T> find(T item) {
+		Node<T> currentNode = visit(root);
+		while (currentNode != null) {
+			int cmp = compare(item, currentNode.value);
+			if (cmp == 0) {
+				return currentNode;
+			}
+			currentNode = visit(cmp < 0 ? currentNode.left : currentNode.right);
+		}
+		return null;
+	} // end of find()
+
+	/**
+	 * Inserts a new element (known to be absent) below point and returns the
+	 * rebalanced subtree root.
+	 */
+	private Node<T> insert(Node<T> point, T item) {
+		if (point == null) {
+			size++;
+			return createNode(item);
+		}
+
+		if (compare(item, point.value) < 0) {
+			point.left = insert(visit(point.left), item);
+		} else {
+			point.right = insert(visit(point.right), item);
+		}
+		return rebalance(point);
+	} // end of insert()
+
+	/**
+	 * Deletes the node holding item below point and returns the rebalanced
+	 * subtree root.
+	 */
+	private Node<T> delete(Node<T> point, T item) {
+		if (point == null) {
+			return null;
+		}
+
+		int cmp = compare(item, point.value);
+		if (cmp < 0) {
+			point.left = delete(visit(point.left), item);
+		} else if (cmp > 0) {
+			point.right = delete(visit(point.right), item);
+		} else {
+			if (point.left == null) {
+				size--;
+				return point.right;
+			} else if (point.right == null) {
+				size--;
+				return point.left;
+			}
+			// both children exist, replace with in-order successor
+			Node<T> min = visit(point.right);
+			while (min.left != null) {
+				min = visit(min.left);
+			}
+			point.value = min.value;
+			point.count = min.count;
+			point.right = delete(visit(point.right), min.value);
+		}
+		return rebalance(point);
+	} // end of delete()
+
+	private SortedEntries<T> inOrder() {
+		SortedEntries<T> entries = new SortedEntries<T>(size);
+		forEachEntry(entries::append);
+		return entries;
+	} // end of inOrder()
+
+	private void rebuild(SortedEntries<T> entries) {
+		if (counters != null) {
+			counters.mRestructures++;
+		}
+		root = build(entries, 0, entries.size() - 1);
+		size = entries.size();
+	} // end of rebuild()
+
+	/**
+	 * Builds a perfectly balanced subtree from entries[low..high], which
+	 * trivially satisfies the AVL invariant.
+	 */
+	private Node<T> build(SortedEntries<T> entries, int low, int high) {
+		if (low > high) {
+			return null;
+		}
+		int mid = (low + high) >>> 1;
+		Node<T> point = createNode(entries.key(mid));
+		point.count = entries.count(mid);
+		point.left = build(entries, low, mid - 1);
+		point.right = build(entries, mid + 1, high);
+		updateHeight(point);
+		return point;
+	} // end of build()
+
+	public void setCostCounters(CostCounters counters) {
+		this.counters = counters;
+	} // end of setCostCounters()
+
+	private int compare(T item, T value) {
+		if (counters != null) {
+			counters.mComparisons++;
+		}
+		return item.compareTo(value);
+	} // end of compare()
+
+	/**
+	 * Counts a visit to node, if there is one, before it is examined.
+	 */
+	private Node<T> visit(Node<T> node) {
+		if (node != null && counters != null) {
+			counters.mNodesVisited++;
+		}
+		return node;
+	} // end of visit()
+
+	private Node<T> createNode(T value) {
+		if (counters != null) {
+			counters.mAllocations++;
+		}
+		return new Node<T>(value);
+	} // end of createNode()
+
+	private static int height(Node<?> node) {
+		return node == null ? 0 : node.height;
+	}
+
+	private static void updateHeight(Node<?> node) {
+		node.height = 1 + Math.max(height(node.left), height(node.right));
+	}
+
+	private Node<T> rotateRight(Node<T> point) {
+		if (counters != null) {
+			counters.mRestructures++;
+		}
+		Node<T> pivot = point.left;
+		point.left = pivot.right;
+		pivot.right = point;
+		updateHeight(point);
+		updateHeight(pivot);
+		return pivot;
+	} // end of rotateRight()
+
+	private Node<T> rotateLeft(Node<T> point) {
+		if (counters != null) {
+			counters.mRestructures++;
+		}
+		Node<T> pivot = point.right;
+		point.right = pivot.left;
+		pivot.left = point;
+		updateHeight(point);
+		updateHeight(pivot);
+		return pivot;
+	} // end of rotateLeft()
+
+	/**
+	 * Restores the AVL invariant at point, assuming both subtrees are valid.
+	 */
+	private Node<T> rebalance(Node<T> point) {
+		updateHeight(point);
+		int balance = height(point.left) - height(point.right);
+
+		if (balance > 1) {
+			// left-right case needs the child rotated first
+			if (height(point.left.left) < height(point.left.right)) {
+				point.left = rotateLeft(point.left);
+			}
+			return rotateRight(point);
+		} else if (balance < -1) {
+			// right-left case
+			if (height(point.right.right) < height(point.right.left)) {
+				point.right = rotateRight(point.right);
+			}
+			return rotateLeft(point);
+		}
+		return point;
+	} // end of rebalance()
+
+	/**
+	 * Node type, inner private class.
+	 */
+	private static class Node<S> {
+		/** Stored value of node. */
+		private S value;
+		/** Number of instances of value. */
+		private int count;
+		/** Height of subtree rooted at this node, leaves have height 1. */
+		private int height;
+		private Node<S> left;
+		private Node<S> right;
+
+		public Node(S value) {
+			this.value = value;
+			count = 1;
+			height = 1;
+		}
+	} // end of inner class Node
+
+} // end of class AvlTreeMultiset
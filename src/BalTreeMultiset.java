@@ -1,5 +1,4 @@
 
-import java.io.PrintStream;
 import java.util.*; 
 
 /**
@@ -64,14 +63,78 @@ public class BalTreeMultiset<T> extends Multiset<T>
 	} // end of removeAll()
 
 
-	public void print(PrintStream out) {
-		Iterator mit = mTree.entrySet().iterator();
-		while (mit.hasNext()) {
-			// need to suppress warning because of we are casting parameterised types
-			@SuppressWarnings("unchecked")
-			Map.Entry<T, Integer> entry = (Map.Entry<T, Integer>) mit.next();
-			out.println(entry.getKey() + printDelim + entry.getValue());
+	/**
+	 * Large batches are merged with the current contents in one sorted pass
+	 * and the tree is rebuilt through TreeMap's O(n) sorted copy constructor.
+	 * Small batches into a big tree are added one by one.
+	 */
+	public void addAll(Collection<? extends T> items) {
+		if (items.size() * 4 < mTree.size()) {
+			super.addAll(items);
 		}
-	} // end of print()
+		else {
+			mTree = new TreeMap<T, Integer>(entries().mergeAdd(SortedEntries.sortedArray(items)).asSortedMap());
+		}
+	} // end of addAll()
+
+
+	public void removeAll(Collection<? extends T> items) {
+		if (items.size() * 4 < mTree.size()) {
+			super.removeAll(items);
+		}
+		else {
+			mTree = new TreeMap<T, Integer>(entries().mergeRemove(SortedEntries.sortedArray(items)).asSortedMap());
+		}
+	} // end of removeAll()
+
+
+	public boolean isSorted() {
+		return true;
+	} // end of isSorted()
+
+
+	/**
+	 * Sorted entries restored into an empty tree go through TreeMap's O(n)
+	 * sorted copy constructor.
+	 */
+	protected void restoreEntries(SortedEntries<T> entries, boolean sorted) {
+		if (sorted && mTree.isEmpty()) {
+			mTree = new TreeMap<T, Integer>(entries.asSortedMap());
+		}
+		else {
+			super.restoreEntries(entries, sorted);
+		}
+	} // end of restoreEntries()
+
+
+	private SortedEntries<T> entries() {
+		SortedEntries<T> entries = new SortedEntries<T>(mTree.size());
+		for (Map.Entry<T, Integer> entry : mTree.entrySet()) {
+			entries.append(entry.getKey(), entry.getValue());
+		}
+		return entries;
+	} // end of entries()
+
+
+	public EntryIterator<T> entryIterator() {
+		final Iterator<Map.Entry<T, Integer>> mit = mTree.entrySet().iterator();
+		return new EntryIterator<T>() {
+			private int mCount = 0;
+
+			public boolean hasNext() {
+				return mit.hasNext();
+			}
+
+			public T next() {
+				Map.Entry<T, Integer> entry = mit.next();
+				mCount = entry.getValue();
+				return entry.getKey();
+			}
+
+			public int count() {
+				return mCount;
+			}
+		};
+	} // end of entryIterator()
 
 } // end of class BalTreeMultiset
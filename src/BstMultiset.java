@@ -1,40 +1,51 @@
 import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.NoSuchElementException;
 
-public class BstMultiset<T extends Comparable<T>> extends Multiset<T> {
+public class BstMultiset<T extends Comparable<T>> extends Multiset<T> implements Instrumentable {
 	/** Reference to head of list. */
 	protected Node<T> root;
+	/** Number of distinct values (nodes) in the tree. */
+	protected int size;
+	/** Cost counters, null unless instrumented. */
+	protected CostCounters counters;
 
 	public BstMultiset() {
 		root = null;
+		size = 0;
 	} // end of BstMultiset()
 
 	public void add(T item) {
-		Node<T> newNode = new Node<T>(item);
+		Node<T> newNode = createNode(item);
 
 		if (root == null) {
 			root = newNode;
+			size++;
 		} else {
-			Node<T> currentNode = root;
+			Node<T> currentNode = visit(root);
 			boolean done = false;
 
 			while (!done) {
-				if (item.equals(currentNode.getValue())) {
+				if (equal(item, currentNode.getValue())) {
 					currentNode.addLeaf();
 					done = true;
-				} else if (item.compareTo(currentNode.getValue()) < 0) {
+				} else if (compare(item, currentNode.getValue()) < 0) {
 					if (currentNode.getLeftChild() == null) {
 						currentNode.setLeftChild(newNode);
+						size++;
 						done = true;
 					} else {
-						currentNode = currentNode.getLeftChild();
+						currentNode = visit(currentNode.getLeftChild());
 						done = false;
 					}
-				} else if (item.compareTo(currentNode.getValue()) > 0) {
+				} else if (compare(item, currentNode.getValue()) > 0) {
 					if (currentNode.getRightChild() == null) {
 						currentNode.setRightChild(newNode);
+						size++;
 						done = true;
 					} else {
-						currentNode = currentNode.getRightChild();
+						currentNode = visit(currentNode.getRightChild());
 						done = false;
 					}
 				}
@@ -46,26 +57,26 @@ public class BstMultiset<T extends Comparable<T>> extends Multiset<T> {
 		if (root == null) {
 			return 0;
 		} else {
-			Node<T> currentNode = root;
+			Node<T> currentNode = visit(root);
 			boolean done = false;
 			int found = 0;
 
 			while (!done) {
-				if (item.compareTo(currentNode.getValue()) == 0) {
+				if (compare(item, currentNode.getValue()) == 0) {
 					found = currentNode.getCount();
 					done = true;
-				} else if (item.compareTo(currentNode.getValue()) < 0) {
+				} else if (compare(item, currentNode.getValue()) < 0) {
 					if (currentNode.getLeftChild() == null) {
 						done = true;
 						found = 0;
 					} else {
-						currentNode = currentNode.getLeftChild();
+						currentNode = visit(currentNode.getLeftChild());
 					}
-				} else if (item.compareTo(currentNode.getValue()) > 0) {
+				} else if (compare(item, currentNode.getValue()) > 0) {
 					if (currentNode.getRightChild() == null) {
 						done = true;
 					} else {
-						currentNode = currentNode.getRightChild();
+						currentNode = visit(currentNode.getRightChild());
 					}
 				}
 			}
@@ -76,27 +87,27 @@ public class BstMultiset<T extends Comparable<T>> extends Multiset<T> {
 
 	public void removeOne(T item) {
 		if (root != null) {
-			Node<T> currentNode = root;
+			Node<T> currentNode = visit(root);
 			boolean done = false;
 
 			while (!done) {
-				if (item.compareTo(currentNode.getValue()) == 0) {
+				if (compare(item, currentNode.getValue()) == 0) {
 					int count = currentNode.removeLeaf();
 					if (count == 0) {
 						removeAll(item); 
 					}
 					done = true;
-				} else if (item.compareTo(currentNode.getValue()) < 0) {
+				} else if (compare(item, currentNode.getValue()) < 0) {
 					if (currentNode.getLeftChild() == null) {
 						done = true;
 					} else {
-						currentNode = currentNode.getLeftChild();
+						currentNode = visit(currentNode.getLeftChild());
 					}
-				} else if (item.compareTo(currentNode.getValue()) > 0) {
+				} else if (compare(item, currentNode.getValue()) > 0) {
 					if (currentNode.getRightChild() == null) {
 						done = true;
 					} else {
-						currentNode = currentNode.getRightChild();
+						currentNode = visit(currentNode.getRightChild());
 					}
 				}
 			}
@@ -105,7 +116,7 @@ public class BstMultiset<T extends Comparable<T>> extends Multiset<T> {
 
 	public void removeAll(T item) {
 		if (root != null) {
-			root = myDelete(root, item);
+			root = myDelete(visit(root), item);
 		}
 	} // end of removeAll()
 
@@ -117,40 +128,109 @@ public class BstMultiset<T extends Comparable<T>> extends Multiset<T> {
 
 		// Case: Node with the required value is to the left or right of point
 		// Move to next node
-		if (item.compareTo(point.getValue()) < 0) {
-			point.setLeftChild(myDelete(point.getLeftChild(), item));
-		} else if (item.compareTo(point.getValue()) > 0) {
-			point.setRightChild(myDelete(point.getRightChild(), item));
+		if (compare(item, point.getValue()) < 0) {
+			point.setLeftChild(myDelete(visit(point.getLeftChild()), item));
+		} else if (compare(item, point.getValue()) > 0) {
+			point.setRightChild(myDelete(visit(point.getRightChild()), item));
 		}
 
 		else { // Case: This is the node with the required value
 				// No children
 			if (point.getLeftChild() == null && point.getRightChild() == null) {
+				size--;
 				return null; // delete reference to point
 			} else if (point.getLeftChild() == null) {
 				// One child to the right
 				// join point's parent to point's right child
+				size--;
 				return point.getRightChild();
 			} else if (point.getRightChild() == null) {
 				// One child to the left
 				// join point's parent to point's right child
+				size--;
 				return point.getLeftChild();
 			} else {
 				// Both children exist
 				// Find node with min value
-				Node<T> min = minNode(point.getRightChild());
+				Node<T> min = minNode(visit(point.getRightChild()));
 				point.setValue(min.getValue());
 				point.setCount(min.getCount());
 				// Delete the node
-				point.setRightChild(myDelete(point.getRightChild(), min.getValue()));
+				point.setRightChild(myDelete(visit(point.getRightChild()), min.getValue()));
 			}
 		}
 		return point;
 	}
 
+	/**
+	 * Large batches are merged with the in-order contents and the tree is
+	 * rebuilt perfectly balanced in O(n), which also undoes any degeneration
+	 * from sorted input.  Small batches into a big tree are added one by one.
+	 */
+	public void addAll(Collection<? extends T> items) {
+		if (items.size() * 4 < size) {
+			super.addAll(items);
+		} else {
+			rebuild(inOrder().mergeAdd(SortedEntries.sortedArray(items)));
+		}
+	} // end of addAll()
+
+	public void removeAll(Collection<? extends T> items) {
+		if (items.size() * 4 < size) {
+			super.removeAll(items);
+		} else {
+			rebuild(inOrder().mergeRemove(SortedEntries.sortedArray(items)));
+		}
+	} // end of removeAll()
+
+	public boolean isSorted() {
+		return true;
+	} // end of isSorted()
+
+	/**
+	 * Sorted entries restored into an empty tree are built straight into a
+	 * balanced tree in O(n) instead of being inserted one by one.
+	 */
+	protected void restoreEntries(SortedEntries<T> entries, boolean sorted) {
+		if (sorted && root == null) {
+			rebuild(entries);
+		} else {
+			super.restoreEntries(entries, sorted);
+		}
+	} // end of restoreEntries()
+
+	private SortedEntries<T> inOrder() {
+		final SortedEntries<T> entries = new SortedEntries<T>(size);
+		forEachEntry(entries::append);
+		return entries;
+	}
+
+	private void rebuild(SortedEntries<T> entries) {
+		if (counters != null) {
+			counters.mRestructures++;
+		}
+		root = build(entries, 0, entries.size() - 1);
+		size = entries.size();
+	}
+
+	/**
+	 * Builds a balanced subtree from entries[low..high], middle entry at the root.
+	 */
+	private Node<T> build(SortedEntries<T> entries, int low, int high) {
+		if (low > high) {
+			return null;
+		}
+		int mid = (low + high) >>> 1;
+		Node<T> point = createNode(entries.key(mid));
+		point.setCount(entries.count(mid));
+		point.setLeftChild(build(entries, low, mid - 1));
+		point.setRightChild(build(entries, mid + 1, high));
+		return point;
+	}
+
 	private Node<T> minNode(Node<T> point) {
 		while (point.getLeftChild() != null) {
-			point = point.getLeftChild();
+			point = visit(point.getLeftChild());
 		}
 		return point;
 	}
@@ -165,22 +245,86 @@ public class BstMultiset<T extends Comparable<T>> extends Multiset<T> {
 		return minValue;
 	}
 
+	public void setCostCounters(CostCounters counters) {
+		this.counters = counters;
+	}
+
+	private int compare(T item, T value) {
+		if (counters != null) {
+			counters.mComparisons++;
+		}
+		return item.compareTo(value);
+	}
+
+	private boolean equal(T item, T value) {
+		if (counters != null) {
+			counters.mComparisons++;
+		}
+		return item.equals(value);
+	}
+
+	/**
+	 * Counts a visit to node, if there is one, before it is examined.
+	 */
+	private Node<T> visit(Node<T> node) {
+		if (node != null && counters != null) {
+			counters.mNodesVisited++;
+		}
+		return node;
+	}
+
+	private Node<T> createNode(T value) {
+		if (counters != null) {
+			counters.mAllocations++;
+		}
+		return new Node<T>(value);
+	}
+
+	/**
+	 * In-order walk with an explicit stack, so a degenerate tree from sorted
+	 * input cannot overflow the call stack.
+	 */
+	public EntryIterator<T> entryIterator() {
+		return new EntryIterator<T>() {
+			private final ArrayDeque<Node<T>> stack = new ArrayDeque<Node<T>>();
+			private Node<T> point = root;
+			private int count = 0;
+
+			public boolean hasNext() {
+				return point != null || !stack.isEmpty();
+			}
+
+			public T next() {
+				while (point != null) {
+					stack.push(point);
+					point = point.getLeftChild();
+				}
+				if (stack.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				Node<T> top = stack.pop();
+				point = top.getRightChild();
+				count = top.getCount();
+				return top.getValue();
+			}
+
+			public int count() {
+				return count;
+			}
+		};
+	} // end of entryIterator()
+
+	/**
+	 * Prints the entries in order, or a line saying so if there are none.
+	 */
 	public void print(PrintStream out) {
 		if (root != null) {
-			travelPrint(root, out);
+			super.print(out);
 		} else {
 			out.println("Structure is empty");
 		}
 	} // end of print()
 
-	private void travelPrint(Node<T> top, PrintStream out) {
-		if (top != null) {
-			travelPrint(top.getLeftChild(), out);
-			out.println(top.getValue() + printDelim + top.getCount());
-			travelPrint(top.getRightChild(), out);
-		}
-	}
-
 	/**
 	 * Node type, inner private class.
 	 */
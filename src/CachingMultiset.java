@@ -0,0 +1,192 @@
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decorator that answers repeated searches from a bounded LRU cache of
+ * element to count, in front of a multiset whose search is expensive, such
+ * as the linked lists.
+ *
+ * Searches that miss go to the wrapped multiset and their result, including
+ * 0, is cached.  add, removeOne and removeAll go to the wrapped multiset and
+ * correct the cached count in place, so the cache is never stale.  The least
+ * recently used entry is evicted when the cache is full.
+ *
+ * @param T Type of elements that the multiset can hold.
+ */
+public class CachingMultiset<T> extends Multiset<T>
+{
+	/** Wrapped multiset. */
+	protected Multiset<T> mInner;
+	/** Element to count, in access order, least recently used first. */
+	protected LinkedHashMap<T, Integer> mCache;
+	/** Most entries the cache holds. */
+	protected int mCapacity;
+	protected long mHits;
+	protected long mMisses;
+	protected long mEvictions;
+
+
+	/**
+	 * @param capacity Most elements to cache, at least 1.
+	 */
+	public CachingMultiset(Multiset<T> inner, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Cache capacity must be positive.");
+		}
+		mInner = inner;
+		mCapacity = capacity;
+		mCache = new LinkedHashMap<T, Integer>(Math.min(capacity, 1 << 16), 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<T, Integer> eldest) {
+				if (size() > mCapacity) {
+					mEvictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+		resetStats();
+	} // end of CachingMultiset()
+
+
+	public void add(T item) {
+		mInner.add(item);
+		Integer count = mCache.get(item);
+		if (count != null) {
+			mCache.put(item, count + 1);
+		}
+	} // end of add()
+
+
+	public int search(T item) {
+		Integer count = mCache.get(item);
+		if (count != null) {
+			mHits++;
+			return count;
+		}
+		mMisses++;
+		int found = mInner.search(item);
+		mCache.put(item, found);
+		return found;
+	} // end of search()
+
+
+	public void removeOne(T item) {
+		mInner.removeOne(item);
+		Integer count = mCache.get(item);
+		if (count != null && count > 0) {
+			mCache.put(item, count - 1);
+		}
+	} // end of removeOne()
+
+
+	public void removeAll(T item) {
+		mInner.removeAll(item);
+		if (mCache.containsKey(item)) {
+			mCache.put(item, 0);
+		}
+	} // end of removeAll()
+
+
+	/**
+	 * Uses the wrapped multiset's bulk add, then corrects cached counts.
+	 */
+	public void addAll(Collection<? extends T> items) {
+		mInner.addAll(items);
+		for (T item : items) {
+			Integer count = mCache.get(item);
+			if (count != null) {
+				mCache.put(item, count + 1);
+			}
+		}
+	} // end of addAll()
+
+
+	/**
+	 * Uses the wrapped multiset's bulk remove, then zeroes cached counts.
+	 */
+	public void removeAll(Collection<? extends T> items) {
+		mInner.removeAll(items);
+		for (T item : items) {
+			if (mCache.containsKey(item)) {
+				mCache.put(item, 0);
+			}
+		}
+	} // end of removeAll()
+
+
+	public EntryIterator<T> entryIterator() {
+		return mInner.entryIterator();
+	} // end of entryIterator()
+
+
+	public void print(PrintStream out) {
+		mInner.print(out);
+	} // end of print()
+
+
+	public boolean isSorted() {
+		return mInner.isSorted();
+	} // end of isSorted()
+
+
+	/**
+	 * Restores straight into the wrapped multiset and drops the cache.
+	 */
+	protected void restoreEntries(SortedEntries<T> entries, boolean sorted) {
+		mInner.restoreEntries(entries, sorted);
+		mCache.clear();
+	} // end of restoreEntries()
+
+
+	public long hits() {
+		return mHits;
+	} // end of hits()
+
+
+	public long misses() {
+		return mMisses;
+	} // end of misses()
+
+
+	public long evictions() {
+		return mEvictions;
+	} // end of evictions()
+
+
+	/**
+	 * @return Fraction of searches answered from the cache, 0 if there were none.
+	 */
+	public double hitRate() {
+		long searches = mHits + mMisses;
+		return searches == 0 ? 0 : (double) mHits / searches;
+	} // end of hitRate()
+
+
+	public int capacity() {
+		return mCapacity;
+	} // end of capacity()
+
+
+	/**
+	 * Zeroes the hit, miss and eviction counts; the cached entries stay.
+	 */
+	public void resetStats() {
+		mHits = 0;
+		mMisses = 0;
+		mEvictions = 0;
+	} // end of resetStats()
+
+
+	/**
+	 * Prints the capacity, entries in use, hits, misses, hit rate and evictions.
+	 *
+	 * @param implementation Name of the implementation the statistics are for.
+	 */
+	public void printStats(String implementation, PrintStream out) {
+		out.printf("%-24s capacity %d, entries %d, hits %d, misses %d, hit rate %.2f%%, evictions %d%n", implementation,
+				mCapacity, mCache.size(), mHits, mMisses, 100 * hitRate(), mEvictions);
+	} // end of printStats()
+
+} // end of class CachingMultiset
@@ -0,0 +1,364 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-level reader for operation command files ("A word", "S word", "RO word",
+ * "RA word", "P", "Q").
+ *
+ * Files are memory mapped; files over 2 GB, which one mapping cannot cover,
+ * and other sources (e.g. standard input) are read through a large direct
+ * buffer.  Commands are decoded straight from the
+ * bytes, with no line String, no regex split and no upper-casing.  The key of
+ * a command only becomes a String when key() is called, and a KeyCache hands
+ * back the same String for words it has seen before.
+ *
+ * Tokens are separated by single spaces, as with line.split(" ") in the old
+ * drivers: an empty token between two spaces counts, trailing empty tokens do
+ * not, and command names are matched case-insensitively.
+ */
+public class CommandParser implements Closeable
+{
+	/** Operation codes returned by next(). */
+	public static final int ADD = 0;
+	public static final int SEARCH = 1;
+	public static final int REMOVE_ONE = 2;
+	public static final int REMOVE_ALL = 3;
+	public static final int PRINT = 4;
+	public static final int QUIT = 5;
+	/** Line whose first token is not a known command. */
+	public static final int UNKNOWN = 6;
+	/** No more lines. */
+	public static final int EOF = -1;
+
+	/** Size of the read buffer for sources that cannot be mapped. */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/** Source to refill from, null once it is exhausted or the input is mapped. */
+	private ReadableByteChannel mChannel;
+	/** Bytes of the input, position at the start of the next line. */
+	private ByteBuffer mBuffer;
+	/** Cache turning key bytes into Strings. */
+	private final KeyCache mKeyCache;
+
+	/** Line number of the command last returned by next(), starting at 1. */
+	private int mLineNum;
+	/** Number of space separated tokens on the current line. */
+	private int mTokenCount;
+	/** Absolute buffer offset and length of the second token. */
+	private int mKeyStart;
+	private int mKeyLength;
+
+
+	/**
+	 * Opens and memory maps a command file.
+	 */
+	public static CommandParser open(String fileName) throws IOException {
+		return open(fileName, new KeyCache());
+	} // end of open()
+
+
+	/**
+	 * Opens and memory maps a command file, sharing keyCache with other parsers.
+	 * A file too large to map is streamed instead.
+	 */
+	public static CommandParser open(String fileName, KeyCache keyCache) throws IOException {
+		FileChannel channel = FileChannel.open(new File(fileName).toPath());
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				// the parser now owns the channel and closes it
+				CommandParser streamed = new CommandParser(channel, keyCache);
+				channel = null;
+				return streamed;
+			}
+			// the mapping stays valid after the channel is closed
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new CommandParser(mapped, keyCache);
+		}
+		finally {
+			if (channel != null) {
+				channel.close();
+			}
+		}
+	} // end of open()
+
+
+	/**
+	 * Parses commands from an in-memory or mapped buffer, from its position to its limit.
+	 */
+	public CommandParser(ByteBuffer buffer, KeyCache keyCache) {
+		mChannel = null;
+		mBuffer = buffer;
+		mKeyCache = keyCache;
+		mLineNum = 0;
+	} // end of CommandParser()
+
+
+	/**
+	 * Parses commands streamed from a stream, through a direct buffer.
+	 */
+	public CommandParser(InputStream in) {
+		this(Channels.newChannel(in), new KeyCache());
+	} // end of CommandParser()
+
+
+	/**
+	 * Parses commands streamed from a channel, through a direct buffer.
+	 */
+	public CommandParser(ReadableByteChannel channel, KeyCache keyCache) {
+		mChannel = channel;
+		mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		mBuffer.flip();
+		mKeyCache = keyCache;
+		mLineNum = 0;
+	} // end of CommandParser()
+
+
+	/**
+	 * Advances to the next line.
+	 *
+	 * @return Operation code of the line, or EOF.
+	 */
+	public int next() throws IOException {
+		int lineEnd = findLineEnd();
+		if (lineEnd < 0) {
+			return EOF;
+		}
+		mLineNum++;
+
+		ByteBuffer buf = mBuffer;
+		int start = buf.position();
+		// the line ends before '\n', and before a '\r' preceding it
+		int end = lineEnd;
+		if (end > start && buf.get(end - 1) == '\r') {
+			end--;
+		}
+		buf.position(lineEnd < buf.limit() ? lineEnd + 1 : lineEnd);
+
+		// command token
+		int pos = start;
+		while (pos < end && buf.get(pos) != ' ') {
+			pos++;
+		}
+		int op = decodeCommand(buf, start, pos - start);
+
+		// count the remaining tokens, dropping trailing empty ones like split(" "),
+		// which also gives an empty line one token but a line of spaces none
+		int lastNonEmpty = pos > start || end == start ? 1 : 0;
+		int tokens = 1;
+		mKeyStart = pos;
+		mKeyLength = 0;
+		while (pos < end) {
+			int tokenStart = ++pos;
+			while (pos < end && buf.get(pos) != ' ') {
+				pos++;
+			}
+			tokens++;
+			if (tokens == 2) {
+				mKeyStart = tokenStart;
+				mKeyLength = pos - tokenStart;
+			}
+			if (pos > tokenStart) {
+				lastNonEmpty = tokens;
+			}
+		}
+		mTokenCount = lastNonEmpty;
+
+		return op;
+	} // end of next()
+
+
+	/**
+	 * @return Number of tokens on the current line, as line.split(" ").length would give.
+	 */
+	public int tokenCount() {
+		return mTokenCount;
+	} // end of tokenCount()
+
+
+	/**
+	 * @return Second token of the current line, the element the command applies to.
+	 */
+	public String key() {
+		return mKeyCache.get(mBuffer, mKeyStart, mKeyLength);
+	} // end of key()
+
+
+	/**
+	 * @return Line number of the current line, starting at 1.
+	 */
+	public int lineNumber() {
+		return mLineNum;
+	} // end of lineNumber()
+
+
+	public void close() throws IOException {
+		if (mChannel != null) {
+			mChannel.close();
+			mChannel = null;
+		}
+	} // end of close()
+
+
+	/**
+	 * Makes sure the next whole line is in the buffer.
+	 *
+	 * @return Absolute offset of the line's '\n' (or the limit for a last line
+	 *         without one), or -1 when there is no more input.
+	 */
+	private int findLineEnd() throws IOException {
+		int scanned = mBuffer.position();
+		while (true) {
+			int limit = mBuffer.limit();
+			for (int i = scanned; i < limit; i++) {
+				if (mBuffer.get(i) == '\n') {
+					return i;
+				}
+			}
+
+			// refill moves the unread bytes to the front, none of them is a '\n'
+			int unread = limit - mBuffer.position();
+			if (!refill()) {
+				return mBuffer.hasRemaining() ? mBuffer.limit() : -1;
+			}
+			scanned = unread;
+		}
+	} // end of findLineEnd()
+
+
+	/**
+	 * Moves the unread bytes to the front of the buffer and reads more after them.
+	 *
+	 * @return False if the source is exhausted.
+	 */
+	private boolean refill() throws IOException {
+		if (mChannel == null) {
+			return false;
+		}
+
+		if (mBuffer.position() == 0 && mBuffer.limit() == mBuffer.capacity()) {
+			// a single line larger than the buffer, grow it
+			ByteBuffer bigger = ByteBuffer.allocateDirect(mBuffer.capacity() * 2);
+			bigger.put(mBuffer);
+			mBuffer = bigger;
+		}
+		else {
+			mBuffer.compact();
+		}
+
+		int read = mChannel.read(mBuffer);
+		mBuffer.flip();
+		if (read < 0) {
+			mChannel.close();
+			mChannel = null;
+			return false;
+		}
+		return true;
+	} // end of refill()
+
+
+	/**
+	 * Matches the command token against A, S, RO, RA, P and Q, ignoring case.
+	 */
+	private static int decodeCommand(ByteBuffer buf, int start, int length) {
+		if (length == 1) {
+			switch (buf.get(start) | 0x20) {
+				case 'a':
+					return ADD;
+				case 's':
+					return SEARCH;
+				case 'p':
+					return PRINT;
+				case 'q':
+					return QUIT;
+				default:
+					return UNKNOWN;
+			}
+		}
+		else if (length == 2 && (buf.get(start) | 0x20) == 'r') {
+			switch (buf.get(start + 1) | 0x20) {
+				case 'o':
+					return REMOVE_ONE;
+				case 'a':
+					return REMOVE_ALL;
+				default:
+					return UNKNOWN;
+			}
+		}
+		return UNKNOWN;
+	} // end of decodeCommand()
+
+
+	/**
+	 * Direct-mapped cache from key bytes to the String decoded from them, so a
+	 * word seen again costs a hash and a byte compare instead of a new String.
+	 * Can be shared by several parsers reading the same vocabulary.
+	 */
+	public static class KeyCache
+	{
+		/** Default number of cache slots. */
+		private static final int DEFAULT_SLOTS = 1 << 16;
+
+		private final String[] mStrings;
+		private final byte[][] mBytes;
+		private final int[] mHashes;
+		private final int mMask;
+
+
+		public KeyCache() {
+			this(DEFAULT_SLOTS);
+		} // end of KeyCache()
+
+
+		/**
+		 * @param slots Number of cached words, rounded up to a power of two.
+		 */
+		public KeyCache(int slots) {
+			int size = Integer.highestOneBit(Math.max(slots - 1, 1)) << 1;
+			mStrings = new String[size];
+			mBytes = new byte[size][];
+			mHashes = new int[size];
+			mMask = size - 1;
+		} // end of KeyCache()
+
+
+		/**
+		 * @return String for buf[start, start + length), decoded as UTF-8.
+		 */
+		public String get(ByteBuffer buf, int start, int length) {
+			int hash = 0;
+			boolean ascii = true;
+			for (int i = 0; i < length; i++) {
+				byte b = buf.get(start + i);
+				hash = 31 * hash + b;
+				ascii &= b >= 0;
+			}
+
+			int slot = (hash ^ (hash >>> 16)) & mMask;
+			byte[] cached = mBytes[slot];
+			if (cached != null && mHashes[slot] == hash && cached.length == length) {
+				int i = 0;
+				while (i < length && cached[i] == buf.get(start + i)) {
+					i++;
+				}
+				if (i == length) {
+					return mStrings[slot];
+				}
+			}
+
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++) {
+				bytes[i] = buf.get(start + i);
+			}
+			String key = new String(bytes, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+			mStrings[slot] = key;
+			mBytes[slot] = bytes;
+			mHashes[slot] = hash;
+			return key;
+		} // end of get()
+	} // end of inner class KeyCache
+
+} // end of class CommandParser
@@ -0,0 +1,452 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Measures how the cost of each operation grows with the size of the
+ * multiset, over sizes on a geometric scale (by default 1k to 10M elements,
+ * two sizes per decade), and estimates the empirical exponent of each
+ * operation type by a least squares fit of log(ns/op) against log(size).
+ *
+ * At each size the multiset is built from distinct generated keys, warmed
+ * up, then timed in rounds of single operations that leave it at the same size: A of
+ * absent keys, S of present keys, RO of the keys just added, and RA of absent
+ * keys added again untimed.  Keys come from a bijective integer mix, so they
+ * are distinct, in random order for the sorted structures, and the same for
+ * a given seed.
+ *
+ * Each fitted exponent is compared with the exponent the expected O(1),
+ * O(log n) or O(n) growth would show over the same sizes, and flagged when
+ * they differ by more than the tolerance.  An implementation stops at the
+ * first size that its growth so far predicts would take longer than the
+ * time budget.
+ */
+public class ComplexitySweep
+{
+	/** Name of class, used in error messages. */
+	protected static final String progName = "ComplexitySweep";
+
+	/** Labels of the measured operations, indexed by CommandParser operation code. */
+	private static final String[] OP_NAMES = { "A", "S", "RO", "RA" };
+	/** Expected growth classes and the names they are reported with. */
+	private static final String[] CLASS_NAMES = { "O(1)", "O(log n)", "O(n)" };
+	private static final int CONSTANT = 0;
+	private static final int LOGARITHMIC = 1;
+	private static final int LINEAR = 2;
+	/** Keys added per addAll call while building. */
+	private static final int BUILD_CHUNK = 10000;
+
+	/** Keeps search results alive so the JIT cannot drop the timed searches. */
+	private static volatile int sink;
+
+	protected String[] mImplementations = MultisetBenchmark.DEFAULT_IMPLEMENTATIONS;
+	protected int mMinSize = 1000;
+	protected int mMaxSize = 10000000;
+	protected int mStepsPerDecade = 2;
+	/** Operations of each type per timed round. */
+	protected int mOps = 1000;
+	/** Minimum measured time at each size, in milliseconds. */
+	protected long mMinMillis = 200;
+	/** Longest predicted time of one size before an implementation stops, in seconds. */
+	protected double mBudgetSecs = 20;
+	/** Largest difference between fitted and expected exponent that is not flagged. */
+	protected double mTolerance = 0.25;
+	protected long mSeed = 0x5EEDL;
+	protected String mOutFilename = "out_sweep.csv";
+
+
+	/**
+	 * Print help/usage message.
+	 */
+	public static void usage(String progName) {
+		System.err.println(progName + ": [options]");
+		System.err.println("  -impl <a,b,...>     implementations (default linkedlist,sortedlinkedlist,bst,hash,baltree)");
+		System.err.println("  -min <n>            smallest size (default 1000)");
+		System.err.println("  -max <n>            largest size (default 10000000)");
+		System.err.println("  -steps <n>          sizes per decade (default 2)");
+		System.err.println("  -ops <n>            operations of each type per timed round, at most size/10 (default 1000)");
+		System.err.println("  -r <millis>         minimum measured time at each size (default 200)");
+		System.err.println("  -budget <secs>      skip sizes predicted to take longer than this (default 20)");
+		System.err.println("  -tolerance <x>      flag exponents further than this from the expected one (default 0.25)");
+		System.err.println("  -seed <n>           seed for keys and search targets");
+		System.err.println("  -o <file>           CSV curves file (default out_sweep.csv), fits go to <file>_fit.csv");
+		System.err.println("<implementation> = <linkedlist | sortedlinkedlist | mtflist | transposelist | countlist | skiplist | bst| avltree | hash | openhash | offheap | trie | concurrenthash | concurrentskiplist | baltree>");
+		System.err.println("  or cache<capacity>:<implementation> for a search cache of that many elements in front of it");
+		System.err.println("  or shard<n>:<implementation> to partition the elements across n of them, bulk operations in parallel");
+		System.exit(1);
+	} // end of usage
+
+
+	/**
+	 * @return Growth expected of every operation of the named implementation,
+	 *         one of CONSTANT, LOGARITHMIC and LINEAR, or -1 if unknown.
+	 */
+	protected static int expectedClass(String implementationType) {
+		switch (implementationType) {
+			case "linkedlist":
+			case "sortedlinkedlist":
+			case "mtflist":
+			case "transposelist":
+			case "countlist":
+				return LINEAR;
+			case "skiplist":
+			case "bst":
+			case "avltree":
+			case "concurrentskiplist":
+			case "baltree":
+				return LOGARITHMIC;
+			case "hash":
+			case "openhash":
+			case "offheap":
+			case "trie":
+			case "concurrenthash":
+				return CONSTANT;
+			default:
+				return -1;
+		}
+	} // end of expectedClass()
+
+
+	/**
+	 * @return Sizes from mMinSize to mMaxSize, mStepsPerDecade per power of ten.
+	 */
+	protected int[] sizes() {
+		List<Integer> sizes = new ArrayList<Integer>();
+		for (int k = 0; ; k++) {
+			long size = Math.round(mMinSize * Math.pow(10, (double) k / mStepsPerDecade));
+			if (size > mMaxSize) {
+				break;
+			}
+			if (sizes.isEmpty() || size > sizes.get(sizes.size() - 1)) {
+				sizes.add((int) size);
+			}
+		}
+		int[] result = new int[sizes.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = sizes.get(i);
+		}
+		return result;
+	} // end of sizes()
+
+
+	/**
+	 * Builds a multiset of size distinct keys and times rounds of each
+	 * operation type on it.
+	 *
+	 * @return Nanoseconds per operation, indexed by CommandParser operation code.
+	 */
+	public double[] measureSize(String implementationType, int size) {
+		Multiset<String> multiset = MultisetBenchmark.createMultiset(implementationType);
+		List<String> chunk = new ArrayList<String>(BUILD_CHUNK);
+		for (int i = 0; i < size; i++) {
+			chunk.add(key(i));
+			if (chunk.size() == BUILD_CHUNK || i == size - 1) {
+				multiset.addAll(chunk);
+				chunk.clear();
+			}
+		}
+
+		// few enough operations per round that the size stays within 10% of size
+		int ops = Math.max(1, Math.min(mOps, size / 10));
+		Random randGen = new Random(mSeed ^ size);
+		String[] present = new String[ops];
+		String[] absent = new String[ops];
+		long[] nanos = new long[OP_NAMES.length];
+		long warmup = 0;
+		long measured = 0;
+		int rounds = 0;
+		// rounds are warmup and not counted until they have taken mMinMillis
+		while (rounds == 0 || measured < mMinMillis * 1000000L) {
+			for (int k = 0; k < ops; k++) {
+				present[k] = key(randGen.nextInt(size));
+				absent[k] = key(size + k);
+			}
+
+			long start = System.nanoTime();
+			for (int k = 0; k < ops; k++) {
+				multiset.add(absent[k]);
+			}
+			long added = System.nanoTime();
+			int found = 0;
+			for (int k = 0; k < ops; k++) {
+				found += multiset.search(present[k]);
+			}
+			long searched = System.nanoTime();
+			for (int k = 0; k < ops; k++) {
+				multiset.removeOne(absent[k]);
+			}
+			long removed = System.nanoTime();
+			for (int k = 0; k < ops; k++) {
+				multiset.add(absent[k]);
+			}
+			long readded = System.nanoTime();
+			for (int k = 0; k < ops; k++) {
+				multiset.removeAll(absent[k]);
+			}
+			long end = System.nanoTime();
+			sink += found;
+
+			if (warmup < mMinMillis * 1000000L) {
+				warmup += end - start;
+			}
+			else {
+				nanos[CommandParser.ADD] += added - start;
+				nanos[CommandParser.SEARCH] += searched - added;
+				nanos[CommandParser.REMOVE_ONE] += removed - searched;
+				nanos[CommandParser.REMOVE_ALL] += end - readded;
+				measured += (added - start) + (removed - added) + (end - readded);
+				rounds++;
+			}
+		}
+
+		double[] nsPerOp = new double[nanos.length];
+		for (int op = 0; op < nanos.length; op++) {
+			nsPerOp[op] = (double) nanos[op] / ((long) rounds * ops);
+		}
+		return nsPerOp;
+	} // end of measureSize()
+
+
+	/**
+	 * Sweeps every implementation over the sizes, writing the curves as it
+	 * goes, then fits and writes the exponents.
+	 */
+	public void runAll() throws IOException {
+		int[] sizes = sizes();
+		PrintWriter curves = new PrintWriter(new FileWriter(mOutFilename), true);
+		curves.println("implementation, op, size, ns/op");
+		List<String> fitLines = new ArrayList<String>();
+
+		for (String implementationType : mImplementations) {
+			List<Integer> measuredSizes = new ArrayList<Integer>();
+			List<double[]> scores = new ArrayList<double[]>();
+
+			for (int size : sizes) {
+				if (!measuredSizes.isEmpty()) {
+					double predicted = predictSecs(measuredSizes, scores, size);
+					if (predicted > mBudgetSecs) {
+						System.out.printf("%s: stopping before size %d, predicted %.0f secs%n", implementationType, size, predicted);
+						break;
+					}
+				}
+
+				long startTime = System.nanoTime();
+				double[] nsPerOp;
+				try {
+					nsPerOp = measureSize(implementationType, size);
+				} catch (OutOfMemoryError e) {
+					System.out.printf("%s: stopping at size %d, out of memory%n", implementationType, size);
+					break;
+				}
+				double secs = (System.nanoTime() - startTime) / 1e9;
+				measuredSizes.add(size);
+				scores.add(nsPerOp);
+
+				System.out.printf("%-20s %10d", implementationType, size);
+				for (int op = 0; op < OP_NAMES.length; op++) {
+					System.out.printf("  %s %10.1f", OP_NAMES[op], nsPerOp[op]);
+					curves.printf("%s, %s, %d, %.3f%n", implementationType, OP_NAMES[op], size, nsPerOp[op]);
+				}
+				System.out.printf("  ns/op (%.2f secs)%n", secs);
+			}
+
+			for (int op = 0; op < OP_NAMES.length; op++) {
+				fitLines.add(fit(implementationType, op, measuredSizes, scores));
+			}
+		}
+		curves.close();
+
+		String fitFilename = mOutFilename.endsWith(".csv")
+				? mOutFilename.substring(0, mOutFilename.length() - 4) + "_fit.csv" : mOutFilename + "_fit.csv";
+		PrintWriter fits = new PrintWriter(new FileWriter(fitFilename), true);
+		String header = "implementation, op, sizes, exponent, r2, expected, expected exponent, closest, flag";
+		fits.println(header);
+		System.out.println();
+		System.out.println(header);
+		for (String line : fitLines) {
+			fits.println(line);
+			System.out.println(line);
+		}
+		fits.close();
+		System.out.println("Curves written to " + mOutFilename + ", fits to " + fitFilename);
+	} // end of runAll()
+
+
+	/**
+	 * Extrapolates the slowest operation from the sizes measured so far, by
+	 * its growth between the first and last of them (linear if there is only
+	 * one), and estimates building the next size plus one warmup and one timed
+	 * round with it.
+	 */
+	private double predictSecs(List<Integer> sizes, List<double[]> scores, int nextSize) {
+		int last = sizes.size() - 1;
+		int slowest = 0;
+		for (int op = 1; op < OP_NAMES.length; op++) {
+			if (scores.get(last)[op] > scores.get(last)[slowest]) {
+				slowest = op;
+			}
+		}
+		double growth = 1;
+		if (last > 0) {
+			growth = Math.log(scores.get(last)[slowest] / scores.get(0)[slowest]) / Math.log((double) sizes.get(last) / sizes.get(0));
+			growth = Math.min(2, Math.max(0, growth));
+		}
+		double nsPerOp = scores.get(last)[slowest] * Math.pow((double) nextSize / sizes.get(last), growth);
+		return (nextSize + 2.0 * OP_NAMES.length * mOps) * nsPerOp / 1e9 + 2 * mMinMillis / 1e3;
+	} // end of predictSecs()
+
+
+	/**
+	 * Fits log(ns/op) = exponent * log(size) + c for one operation type.
+	 *
+	 * @return CSV line of the fit.
+	 */
+	private String fit(String implementationType, int op, List<Integer> sizes, List<double[]> scores) {
+		int n = sizes.size();
+		double[] logSizes = new double[n];
+		double[] logScores = new double[n];
+		for (int i = 0; i < n; i++) {
+			logSizes[i] = Math.log(sizes.get(i));
+			logScores[i] = Math.log(Math.max(scores.get(i)[op], 1e-3));
+		}
+		String prefix = String.format("%s, %s, %d", implementationType, OP_NAMES[op], n);
+		if (n < 2) {
+			return prefix + ", , , , , , too few sizes";
+		}
+		double[] line = leastSquares(logSizes, logScores);
+
+		// the exponent each growth class shows over these sizes; log n is not a power law
+		double[] classExponents = new double[CLASS_NAMES.length];
+		double[] logLogSizes = new double[n];
+		for (int i = 0; i < n; i++) {
+			logLogSizes[i] = Math.log(logSizes[i]);
+		}
+		classExponents[CONSTANT] = 0;
+		classExponents[LOGARITHMIC] = leastSquares(logSizes, logLogSizes)[0];
+		classExponents[LINEAR] = 1;
+
+		int closest = 0;
+		for (int c = 1; c < classExponents.length; c++) {
+			if (Math.abs(line[0] - classExponents[c]) < Math.abs(line[0] - classExponents[closest])) {
+				closest = c;
+			}
+		}
+
+		int expected = expectedClass(implementationType);
+		if (expected < 0) {
+			return prefix + String.format(", %.3f, %.3f, , , %s, ", line[0], line[2], CLASS_NAMES[closest]);
+		}
+		boolean departs = Math.abs(line[0] - classExponents[expected]) > mTolerance;
+		return prefix + String.format(", %.3f, %.3f, %s, %.3f, %s, %s", line[0], line[2], CLASS_NAMES[expected],
+				classExponents[expected], CLASS_NAMES[closest], departs ? "DEPARTS" : "ok");
+	} // end of fit()
+
+
+	/**
+	 * @return Slope, intercept and coefficient of determination of the least
+	 *         squares line through (x[i], y[i]).
+	 */
+	protected static double[] leastSquares(double[] x, double[] y) {
+		int n = x.length;
+		double meanX = 0;
+		double meanY = 0;
+		for (int i = 0; i < n; i++) {
+			meanX += x[i] / n;
+			meanY += y[i] / n;
+		}
+		double sxx = 0;
+		double sxy = 0;
+		double syy = 0;
+		for (int i = 0; i < n; i++) {
+			sxx += (x[i] - meanX) * (x[i] - meanX);
+			sxy += (x[i] - meanX) * (y[i] - meanY);
+			syy += (y[i] - meanY) * (y[i] - meanY);
+		}
+		double slope = sxx == 0 ? 0 : sxy / sxx;
+		double r2 = syy == 0 ? 1 : slope * sxy / syy;
+		return new double[] { slope, meanY - slope * meanX, r2 };
+	} // end of leastSquares()
+
+
+	/**
+	 * @return Distinct key for each index below 2^32, scattered by the
+	 *         murmur3 finalizer, which is a bijection on ints.
+	 */
+	protected String key(long index) {
+		int h = (int) index ^ (int) mSeed;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return Long.toString(h & 0xFFFFFFFFL, 36);
+	} // end of key()
+
+
+	/**
+	 * Main method.
+	 */
+	public static void main(String[] args) {
+		ComplexitySweep sweep = new ComplexitySweep();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+					case "-impl":
+						sweep.mImplementations = args[++i].split(",");
+						break;
+					case "-min":
+						sweep.mMinSize = Integer.parseInt(args[++i]);
+						break;
+					case "-max":
+						sweep.mMaxSize = Integer.parseInt(args[++i]);
+						break;
+					case "-steps":
+						sweep.mStepsPerDecade = Integer.parseInt(args[++i]);
+						break;
+					case "-ops":
+						sweep.mOps = Integer.parseInt(args[++i]);
+						break;
+					case "-r":
+						sweep.mMinMillis = Long.parseLong(args[++i]);
+						break;
+					case "-budget":
+						sweep.mBudgetSecs = Double.parseDouble(args[++i]);
+						break;
+					case "-tolerance":
+						sweep.mTolerance = Double.parseDouble(args[++i]);
+						break;
+					case "-seed":
+						sweep.mSeed = Long.parseLong(args[++i]);
+						break;
+					case "-o":
+						sweep.mOutFilename = args[++i];
+						break;
+					default:
+						System.err.println("Unknown option " + args[i] + ".");
+						usage(progName);
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			System.err.println("Invalid option.");
+			usage(progName);
+		}
+
+		if (sweep.mMinSize < 1 || sweep.mMaxSize < sweep.mMinSize || sweep.mStepsPerDecade < 1 || sweep.mOps < 1) {
+			usage(progName);
+		}
+		for (String implementationType : sweep.mImplementations) {
+			if (MultisetBenchmark.createMultiset(implementationType) == null) {
+				System.err.println("Unknown implmementation type: " + implementationType);
+				usage(progName);
+			}
+		}
+
+		try {
+			sweep.runAll();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	} // end of main()
+
+} // end of class ComplexitySweep
@@ -0,0 +1,18 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe hash implementation of a multiset.  Implements Multiset abstract class.
+ *
+ * The counters of ConcurrentMapMultiset live in a ConcurrentHashMap, so print
+ * walks the elements in no particular order.
+ *
+ * @param T Type of elements that the multiset can hold.
+ */
+public class ConcurrentHashMultiset<T> extends ConcurrentMapMultiset<T>
+{
+	public ConcurrentHashMultiset() {
+		super(new ConcurrentHashMap<T, AtomicInteger>());
+	} // end of ConcurrentHashMultiset()
+
+} // end of class ConcurrentHashMultiset
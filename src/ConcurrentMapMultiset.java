@@ -0,0 +1,142 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe multiset over a concurrent map of counters.  The map decides
+ * the order of iteration; subclasses choose it.
+ *
+ * Each distinct element maps to an AtomicInteger that is updated with
+ * compare-and-set, so threads working on different elements never contend and
+ * threads on the same element never block.
+ *
+ * A counter that reaches zero is dead: it stays at zero forever and is removed
+ * from the map with remove(key, counter).  An add that finds a dead counter
+ * swaps in a fresh one instead of reviving it, so an add racing with the
+ * removal of the last instance is never lost.
+ *
+ * @param T Type of elements that the multiset can hold.
+ */
+public abstract class ConcurrentMapMultiset<T> extends Multiset<T>
+{
+	/** Internal map used to implement multiset semantics. The mapped value stores the number of instances of each element. */
+	protected final ConcurrentMap<T, AtomicInteger> mMap;
+
+
+	/**
+	 * @param map Empty concurrent map to keep the counters in.
+	 */
+	protected ConcurrentMapMultiset(ConcurrentMap<T, AtomicInteger> map) {
+		mMap = map;
+	} // end of ConcurrentMapMultiset()
+
+
+	public void add(T item) {
+		while (true) {
+			AtomicInteger counter = mMap.get(item);
+			if (counter == null) {
+				counter = mMap.putIfAbsent(item, new AtomicInteger(1));
+				if (counter == null) {
+					return;
+				}
+			}
+
+			// counter exists, increment unless it is dead
+			int count;
+			while ((count = counter.get()) != 0) {
+				if (counter.compareAndSet(count, count + 1)) {
+					return;
+				}
+			}
+
+			// dead counter still in the map, replace it and retry on failure
+			AtomicInteger fresh = new AtomicInteger(1);
+			if (mMap.putIfAbsent(item, fresh) == null || mMap.replace(item, counter, fresh)) {
+				return;
+			}
+		}
+	} // end of add()
+
+
+	public int search(T item) {
+		AtomicInteger counter = mMap.get(item);
+		return counter == null ? 0 : counter.get();
+	} // end of search()
+
+
+	public void removeOne(T item) {
+		AtomicInteger counter = mMap.get(item);
+		if (counter == null) {
+			return;
+		}
+
+		int count;
+		while ((count = counter.get()) != 0) {
+			if (counter.compareAndSet(count, count - 1)) {
+				if (count == 1) {
+					mMap.remove(item, counter);
+				}
+				return;
+			}
+		}
+	} // end of removeOne()
+
+
+	public void removeAll(T item) {
+		AtomicInteger counter = mMap.get(item);
+		if (counter == null) {
+			return;
+		}
+
+		int count;
+		while ((count = counter.get()) != 0) {
+			if (counter.compareAndSet(count, 0)) {
+				mMap.remove(item, counter);
+				return;
+			}
+		}
+	} // end of removeAll()
+
+
+	/**
+	 * Weakly consistent: never throws ConcurrentModificationException and
+	 * reflects some state of each element during the walk.  Elements whose
+	 * counter is dead are skipped.
+	 */
+	public EntryIterator<T> entryIterator() {
+		final Iterator<Map.Entry<T, AtomicInteger>> mit = mMap.entrySet().iterator();
+		return new EntryIterator<T>() {
+			private T mNextKey = null;
+			private int mNextCount = 0;
+			private int mCount = 0;
+
+			public boolean hasNext() {
+				// look ahead past dead counters
+				while (mNextKey == null && mit.hasNext()) {
+					Map.Entry<T, AtomicInteger> entry = mit.next();
+					int count = entry.getValue().get();
+					if (count > 0) {
+						mNextKey = entry.getKey();
+						mNextCount = count;
+					}
+				}
+				return mNextKey != null;
+			}
+
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				T key = mNextKey;
+				mCount = mNextCount;
+				mNextKey = null;
+				return key;
+			}
+
+			public int count() {
+				return mCount;
+			}
+		};
+	} // end of entryIterator()
+
+} // end of class ConcurrentMapMultiset
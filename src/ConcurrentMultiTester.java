@@ -0,0 +1,290 @@
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Multi-threaded stress and throughput test for the thread-safe multisets.
+ *
+ * The stress phase has every thread hammer a small key set with add and
+ * removeOne, so counts keep dropping to zero while other threads add the same
+ * keys.  Each thread only removes instances it added itself, so the final
+ * count of every key must equal the sum of the per-thread balances.  A reader
+ * thread keeps iterating over the multiset meanwhile; for sorted
+ * implementations it also checks that every pass comes out in ascending order.
+ *
+ * The throughput phase replays the same kind of A/RO traffic at increasing
+ * thread counts and compares against the matching sequential multiset
+ * (HashMultiset or BalTreeMultiset) behind one lock.
+ */
+public class ConcurrentMultiTester {
+	/** Name of class, used in error messages. */
+	protected static final String progName = "ConcurrentMultiTester";
+
+	/** Number of distinct keys in the stress phase, small to force contention. */
+	private static final int STRESS_KEYS = 16;
+	/** Operations per thread in the stress phase. */
+	private static final int STRESS_OPS = 500000;
+	/** Distinct keys in the throughput phase. */
+	private static final int THROUGHPUT_KEYS = 10000;
+	/** Operations per thread in the throughput phase. */
+	private static final int THROUGHPUT_OPS = 1000000;
+
+	/**
+	 * Print help/usage message.
+	 */
+	public static void usage(String progName) {
+		System.err.println(progName + ": <implementation> [max threads]");
+		System.err.println("<implementation> = <concurrenthash | concurrentskiplist>");
+		System.exit(1);
+	} // end of usage
+
+	/**
+	 * @return New empty thread-safe multiset of the named type.
+	 */
+	public static Multiset<String> create(String implementationType) {
+		switch (implementationType) {
+		case "concurrenthash":
+			return new ConcurrentHashMultiset<String>();
+		case "concurrentskiplist":
+			return new ConcurrentSkipListMultiset<String>();
+		case "lockedhash":
+			return new LockedMultiset<String>(new HashMultiset<String>());
+		case "lockedbaltree":
+			return new LockedMultiset<String>(new BalTreeMultiset<String>());
+		default:
+			System.err.println("Unknown implmementation type.");
+			usage(progName);
+			return null;
+		}
+	} // end of create()
+
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Incorrect number of arguments.");
+			usage(progName);
+		}
+
+		String implementationType = args[0];
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		if (args.length == 2) {
+			maxThreads = Integer.parseInt(args[1]);
+		}
+
+		try {
+			boolean ok = stress(create(implementationType), maxThreads);
+			System.out.println("Stress test " + (ok ? "passed" : "FAILED") + " with " + maxThreads + " threads");
+			if (!ok) {
+				System.exit(2);
+			}
+
+			// compare against the single-lock version of the matching sequential structure
+			String baseline = implementationType.equals("concurrentskiplist") ? "lockedbaltree" : "lockedhash";
+			System.out.println("threads, " + implementationType + " (ops/sec), " + baseline + " (ops/sec)");
+			for (int threads = 1; threads <= maxThreads; threads *= 2) {
+				double concurrent = throughput(create(implementationType), threads);
+				double locked = throughput(create(baseline), threads);
+				System.out.printf("%d, %.0f, %.0f\n", threads, concurrent, locked);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		}
+	} // end of main()
+
+	/**
+	 * Runs the add/removeOne race on a shared multiset and checks the final counts.
+	 *
+	 * @return True if every count matches the threads' combined balance.
+	 */
+	public static boolean stress(final Multiset<String> multiset, int threads)
+			throws InterruptedException, ExecutionException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<int[]>> balances = new ArrayList<>();
+		final CountDownLatch start = new CountDownLatch(1);
+
+		for (int t = 0; t < threads; t++) {
+			final long seed = t;
+			balances.add(pool.submit(new Callable<int[]>() {
+				public int[] call() throws InterruptedException {
+					Random rand = new Random(seed);
+					int[] balance = new int[STRESS_KEYS];
+					start.await();
+					for (int i = 0; i < STRESS_OPS; i++) {
+						int key = rand.nextInt(STRESS_KEYS);
+						// only remove what this thread added, so the global count stays positive
+						if (balance[key] > 0 && rand.nextBoolean()) {
+							multiset.removeOne(stressKey(key));
+							balance[key]--;
+						}
+						else {
+							multiset.add(stressKey(key));
+							balance[key]++;
+						}
+					}
+					// drain most keys back to zero to exercise entry removal
+					for (int key = 0; key < STRESS_KEYS; key += 2) {
+						while (balance[key] > 0) {
+							multiset.removeOne(stressKey(key));
+							balance[key]--;
+						}
+					}
+					return balance;
+				}
+			}));
+		}
+
+		// reader runs alongside the writers until they are all done
+		final boolean sorted = multiset instanceof ConcurrentSkipListMultiset;
+		final ExecutorService readerPool = Executors.newSingleThreadExecutor();
+		final List<Future<int[]>> writers = balances;
+		Future<Boolean> reader = readerPool.submit(new Callable<Boolean>() {
+			public Boolean call() throws InterruptedException {
+				start.await();
+				boolean inOrder = true;
+				do {
+					OrderCheck check = new OrderCheck();
+					multiset.forEachEntry(check);
+					inOrder &= !sorted || check.inOrder;
+				} while (!allDone(writers));
+				return inOrder;
+			}
+		});
+
+		start.countDown();
+		int[] expected = new int[STRESS_KEYS];
+		for (Future<int[]> future : balances) {
+			int[] balance = future.get();
+			for (int key = 0; key < STRESS_KEYS; key++) {
+				expected[key] += balance[key];
+			}
+		}
+		pool.shutdown();
+
+		boolean ok = reader.get();
+		readerPool.shutdown();
+		if (!ok) {
+			System.err.println("iteration was not in ascending order while writers were running");
+		}
+		for (int key = 0; key < STRESS_KEYS; key++) {
+			int found = multiset.search(stressKey(key));
+			if (found != expected[key]) {
+				System.err.println(stressKey(key) + ": expected " + expected[key] + " but found " + found);
+				ok = false;
+			}
+		}
+		return ok;
+	} // end of stress()
+
+	/**
+	 * Measures A/RO throughput over a shared multiset.
+	 *
+	 * @return Operations per second across all threads.
+	 */
+	public static double throughput(final Multiset<String> multiset, int threads)
+			throws InterruptedException, ExecutionException {
+		final String[] keys = new String[THROUGHPUT_KEYS];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = "key" + i;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> done = new ArrayList<>();
+		final CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < threads; t++) {
+			final long seed = t;
+			done.add(pool.submit(new Callable<Void>() {
+				public Void call() throws InterruptedException {
+					Random rand = new Random(seed);
+					start.await();
+					for (int i = 0; i < THROUGHPUT_OPS; i++) {
+						String key = keys[rand.nextInt(THROUGHPUT_KEYS)];
+						if (rand.nextInt(4) == 0) {
+							multiset.removeOne(key);
+						}
+						else {
+							multiset.add(key);
+						}
+					}
+					return null;
+				}
+			}));
+		}
+
+		long startTime = System.nanoTime();
+		start.countDown();
+		for (Future<?> future : done) {
+			future.get();
+		}
+		long endTime = System.nanoTime();
+		pool.shutdown();
+
+		return (double) threads * THROUGHPUT_OPS / ((endTime - startTime) / Math.pow(10, 9));
+	} // end of throughput()
+
+	private static String stressKey(int key) {
+		return "stress" + key;
+	}
+
+	private static boolean allDone(List<? extends Future<?>> futures) {
+		for (Future<?> future : futures) {
+			if (!future.isDone()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Remembers whether the entries it is fed come in ascending key order.
+	 */
+	private static class OrderCheck implements ObjIntConsumer<String> {
+		private String mLastKey = null;
+		private boolean inOrder = true;
+
+		public void accept(String key, int count) {
+			if (mLastKey != null && mLastKey.compareTo(key) >= 0) {
+				inOrder = false;
+			}
+			mLastKey = key;
+		}
+	} // end of inner class OrderCheck
+
+	/**
+	 * Baseline: any multiset behind a single lock.
+	 */
+	private static class LockedMultiset<T> extends Multiset<T> {
+		private final Multiset<T> mInner;
+
+		public LockedMultiset(Multiset<T> inner) {
+			mInner = inner;
+		}
+
+		public synchronized void add(T item) {
+			mInner.add(item);
+		}
+
+		public synchronized int search(T item) {
+			return mInner.search(item);
+		}
+
+		public synchronized void removeOne(T item) {
+			mInner.removeOne(item);
+		}
+
+		public synchronized void removeAll(T item) {
+			mInner.removeAll(item);
+		}
+
+		public synchronized void print(PrintStream out) {
+			mInner.print(out);
+		}
+
+		/**
+		 * Not locked, callers must hold the monitor while iterating.
+		 */
+		public EntryIterator<T> entryIterator() {
+			return mInner.entryIterator();
+		}
+	} // end of inner class LockedMultiset
+
+} // end of class ConcurrentMultiTester
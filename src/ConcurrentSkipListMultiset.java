@@ -0,0 +1,24 @@
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe sorted implementation of a multiset.  Implements Multiset abstract class.
+ *
+ * The counters of ConcurrentMapMultiset live in a lock-free
+ * ConcurrentSkipListMap.  print walks the elements in ascending order without
+ * blocking writers, which BalTreeMultiset's TreeMap cannot do.
+ *
+ * @param T Type of elements that the multiset can hold.
+ */
+public class ConcurrentSkipListMultiset<T extends Comparable<T>> extends ConcurrentMapMultiset<T>
+{
+	public ConcurrentSkipListMultiset() {
+		super(new ConcurrentSkipListMap<T, AtomicInteger>());
+	} // end of ConcurrentSkipListMultiset()
+
+
+	public boolean isSorted() {
+		return true;
+	} // end of isSorted()
+
+} // end of class ConcurrentSkipListMultiset
@@ -0,0 +1,76 @@
+/**
+ * Tallies of the algorithmic work done by a multiset, kept apart from wall
+ * time: key comparisons, nodes (or table slots) visited, nodes allocated and
+ * restructurings (rotations, rebuilds and table resizes).
+ *
+ * Implementations that support counting implement Instrumentable and bump
+ * the fields directly while a CostCounters is attached.
+ *
+ * A node visit is every node or table slot an operation examines, including
+ * the first one, so a hit on the root, head or home slot counts 1 and the
+ * columns of different implementations can be compared.
+ */
+public class CostCounters
+{
+	/** Multiset operations the other tallies were collected over. */
+	long mOperations;
+	long mComparisons;
+	long mNodesVisited;
+	long mAllocations;
+	long mRestructures;
+
+
+	public void reset() {
+		mOperations = 0;
+		mComparisons = 0;
+		mNodesVisited = 0;
+		mAllocations = 0;
+		mRestructures = 0;
+	} // end of reset()
+
+
+	/**
+	 * Adds the tallies of other into these.
+	 */
+	public void add(CostCounters other) {
+		mOperations += other.mOperations;
+		mComparisons += other.mComparisons;
+		mNodesVisited += other.mNodesVisited;
+		mAllocations += other.mAllocations;
+		mRestructures += other.mRestructures;
+	} // end of add()
+
+
+	public long operations() {
+		return mOperations;
+	} // end of operations()
+
+
+	public long comparisons() {
+		return mComparisons;
+	} // end of comparisons()
+
+
+	public long nodesVisited() {
+		return mNodesVisited;
+	} // end of nodesVisited()
+
+
+	public long allocations() {
+		return mAllocations;
+	} // end of allocations()
+
+
+	public long restructures() {
+		return mRestructures;
+	} // end of restructures()
+
+
+	/**
+	 * @return Tally divided by the number of operations, 0 if there were none.
+	 */
+	public double perOperation(long tally) {
+		return mOperations == 0 ? 0 : (double) tally / mOperations;
+	} // end of perOperation()
+
+} // end of class CostCounters
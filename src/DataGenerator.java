@@ -1,73 +1,198 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
 
 /**
  * Generates collection of integers from sampling a uniform distribution.
- * 
+ *
+ * Testing sets are also generated with skewed keys: Zipfian over the words
+ * in starting data order, a hotspot where a fraction of the operations go to
+ * a fraction of the words, and latest, where searches and removes favour the
+ * most recently added words.  Their file names end in "_zipf", "_hotspot"
+ * and "_latest".
+ *
+ * Output is streamed straight to the files, one command at a time, so the
+ * memory used depends on the number of distinct words but not on the number
+ * of commands.  Words are kept as int indices into the dictionary, and every
+ * random choice comes from the seed, so the same arguments always give the
+ * same files.  Each file is generated in fixed size chunks on all cores; the
+ * thread count does not change the output.
+ *
  * @author jkcchan
  */
 public class DataGenerator {
 	/** Program name. */
 	protected static final String progName = "IntegerGenerator";
 	private static final String wordFile = "words_alpha.txt";
+	/** Extension of the generated files, ".txt" for text commands or Workload.EXTENSION for binary workloads. */
+	private static String fileExtension = ".txt";
+	/** Seed used when none is given. */
+	public static final long DEFAULT_SEED = 0x5EEDL;
+
+	/** Orders the starting data is written in. */
+	private static final int RANDOM = 0;
+	private static final int SORTED = 1;
+	private static final int REVERSE = 2;
+
+	/** Key distributions of the testing sets, indices into DISTRIBUTIONS. */
+	private static final int UNIFORM = 0;
+	private static final int ZIPF = 1;
+	private static final int HOTSPOT = 2;
+	private static final int LATEST = 3;
+	/** File name suffix of each key distribution. */
+	public static final String[] DISTRIBUTIONS = { "", "_zipf", "_hotspot", "_latest" };
+
+	/** Exponent s of the Zipfian distribution, P(rank k) proportional to 1/k^s. */
+	private static double zipfExponent = 0.99;
+	/** Hotspot: this fraction of the operations ... */
+	private static double hotOpFraction = 0.9;
+	/** ... go to this fraction of the words. */
+	private static double hotKeyFraction = 0.1;
 
 	/** Random generator to use. */
 	static Random mRandGen;
 
-	private static ArrayList<String> words = new ArrayList<>();
+	/** Dictionary, sorted so that index order is word order. */
+	private static String[] words;
+	/** Distinct words of the data sets, as dictionary indices, in sampled order. */
+	private static int[] pool;
+	/** Number of commands in every data set. */
+	private static int dataSize;
+	/** Occurrences of each pool word in the starting data, null until counted. */
+	private static int[] poolCounts;
+	/** Pool indices in the order each starting data order adds them, null until needed. */
+	private static int[][] rankedPools = new int[3][];
+	/** Commands generated by each task; fixed, so the output does not depend on the thread count. */
+	private static final int CHUNK_SIZE = 1 << 20;
+	/** Threads that generate chunks. */
+	private static int threads = Runtime.getRuntime().availableProcessors();
+	/** Seed of the command sequences. */
+	private static long seed;
+	/** Cumulative Zipfian weights of the ranks 1 to pool size, null until needed. */
+	private static double[] zipfCdf;
 
 	public DataGenerator() {
-		mRandGen = new Random(System.currentTimeMillis());
+		this(DEFAULT_SEED);
+	}
+
+	public DataGenerator(long seed) {
+		mRandGen = new Random(seed);
 		readWordList();
 	}
-	
+
+	/**
+	 * Print help/usage message.
+	 */
+	public static void usage(String progName) {
+		System.err.println(progName + ": <pool size> <data size> [binary] [zipf=<s>] [hotspot=<x>,<y>] [threads=<n>] [seed]");
+		System.err.println("  pool size = number of distinct words in the data");
+		System.err.println("  data size = number of commands in each file");
+		System.err.println("  binary = write workload files instead of text files");
+		System.err.println("  zipf = exponent of the Zipfian key distribution (default 0.99)");
+		System.err.println("  hotspot = fraction x of operations on fraction y of the words (default 0.9,0.1)");
+		System.err.println("  threads = threads generating each file, does not change the output (default: number of cores)");
+		System.err.println("  seed = seed of every random choice (default " + DEFAULT_SEED + ")");
+		System.exit(1);
+	} // end of usage
+
 	public static void main(String[] args) {
-		int poolSize = Integer.parseInt(args[0]); // guaranteed number of distinct nodes in the
-								// structure
-		int finalSize = Integer.parseInt(args[1]); // actual final size of all files
-		int extras = 2500; // number of extra unseen words for the testing files
+		if (args.length < 2 || args.length > 7) {
+			usage(progName);
+		}
+		int poolSize = 0;
+		int finalSize = 0;
+		seed = DEFAULT_SEED;
+		try {
+			poolSize = Integer.parseInt(args[0]); // guaranteed number of distinct nodes in the
+										// structure
+			finalSize = Integer.parseInt(args[1]); // actual final size of all files
+			for (int i = 2; i < args.length; i++) {
+				if (args[i].equals("binary")) {
+					fileExtension = Workload.EXTENSION; // write binary workload files instead of text
+				}
+				else if (args[i].startsWith("zipf=")) {
+					zipfExponent = Double.parseDouble(args[i].substring("zipf=".length()));
+				}
+				else if (args[i].startsWith("threads=")) {
+					threads = Integer.parseInt(args[i].substring("threads=".length()));
+				}
+				else if (args[i].startsWith("hotspot=")) {
+					String[] fractions = args[i].substring("hotspot=".length()).split(",");
+					hotOpFraction = Double.parseDouble(fractions[0]);
+					hotKeyFraction = Double.parseDouble(fractions[1]);
+				}
+				else {
+					seed = Long.parseLong(args[i]); // pick any seed to get other output
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			System.err.println("Invalid argument.");
+			usage(progName);
+		}
+		if (threads < 1) {
+			System.err.println("Number of threads must be positive.");
+			usage(progName);
+		}
+		if (poolSize < 1 || finalSize < poolSize) {
+			System.err.println("Data size must be at least the pool size, which must be positive.");
+			usage(progName);
+		}
+		if (zipfExponent <= 0 || hotOpFraction < 0 || hotOpFraction > 1 || hotKeyFraction <= 0 || hotKeyFraction > 1) {
+			System.err.println("Invalid distribution parameter.");
+			usage(progName);
+		}
+
 		String fileStub = "1000nodeinput"; // name for all initial data files
 		String[] dataOrder = {"random", "order", "reverse"};
-		mRandGen = new Random(System.currentTimeMillis()); // Pick any seed to
-															// get the same
-															// output each time
+		mRandGen = new Random(seed);
+		System.out.println("Seed: " + seed);
 		readWordList(); // grab the dictionary from the file
 
 		// create data files for initial data structures
-		ArrayList<ArrayList<String>> allSamples = new ArrayList<ArrayList<String>>();
-		String fileName = fileStub + ".txt";
-		createStartingDataSets(allSamples, poolSize, finalSize, extras, fileName);
+		String fileName = fileStub + fileExtension;
+		try {
+			createStartingDataSets(poolSize, finalSize, fileName);
 
-		for(int i=0 ; i<allSamples.size() ; i++)
-		{
 			// create a testing file with various proportions of add, remove one and
 			// search in that order
-			double[][] props = { 
-					{ 1, 0, 0 }, 
-					{ 0, 1, 0 }, 
-					{ 0, 0, 1 }, 
-					{ 0.5, 0, 0.5 }, 
-					{ 0.5, 0.5, 0 }, 
+			double[][] props = {
+					{ 1, 0, 0 },
+					{ 0, 1, 0 },
+					{ 0, 0, 1 },
+					{ 0.5, 0, 0.5 },
+					{ 0.5, 0.5, 0 },
 					{ 0, 0.5, 0.5 },
-					{ 0.75, 0.25, 0 }, 
-					{ .25, .75, 0 }, 
-					{ .375, .375, .25 }, 
-					{ .125, .125, .75 }, 
+					{ 0.75, 0.25, 0 },
+					{ .25, .75, 0 },
+					{ .375, .375, .25 },
+					{ .125, .125, .75 },
 					{ .25, .25, .5 } };
-			
-			ArrayList<String> sample = allSamples.get(i);
 
-			for (int j = 0; j < props.length; j++) {
-				String testingCase = "FixData" + Integer.toString(poolSize) + "_OpSize" + Integer.toString(finalSize) + 
-									 "_Test" + Integer.toString(j + 1) + "_" + dataOrder[i] + ".txt";
-				createTestingSets(sample, finalSize, extras, props[j], testingCase);
+			// every mix with each key distribution, uniform ones first under the original names
+			for (int d = 0; d < DISTRIBUTIONS.length; d++) {
+				for (int i = 0; i < dataOrder.length; i++) {
+					for (int j = 0; j < props.length; j++) {
+						String testingCase = "FixData" + Integer.toString(poolSize) + "_OpSize" + Integer.toString(finalSize) +
+											 "_Test" + Integer.toString(j + 1) + "_" + dataOrder[i] + DISTRIBUTIONS[d] + fileExtension;
+						createTestingSets(i, d, props[j], streamSeed(d * props.length + j + 1), testingCase);
+					}
+				}
 			}
+		} catch (IOException e) {
+			System.err.println("cannot write data files: " + e.getMessage());
+			System.exit(1);
 		}
 	}	// end of main()
-	
+
 
 	/**
 	 * Generate one sample, using sampling with replacement.
@@ -78,7 +203,7 @@ public class DataGenerator {
 
 	/**
 	 * Generate 'sampleSize' number of samples, using sampling with replacement.
-	 * 
+	 *
 	 * @param sampleSize
 	 *            Number of samples to generate.
 	 */
@@ -93,10 +218,11 @@ public class DataGenerator {
 	} // end of sampleWithReplacement()
 
 	/**
-	 * Sample without replacement, using "Algorithm R" by Jeffrey Vitter, in
-	 * paper "Random sampling without a reservoir". This algorithm has O(size of
-	 * range) time complexity.
-	 * 
+	 * Sample without replacement, using Robert Floyd's algorithm (Bentley,
+	 * "Programming Pearls: A sample of brilliance"), then shuffle the sample
+	 * into random order.  This algorithm has O(sampleSize) time and space
+	 * complexity, whatever the size of the range.
+	 *
 	 * @param sampleSize
 	 *            Number of samples to generate.
 	 * @throws IllegalArgumentException
@@ -112,152 +238,442 @@ public class DataGenerator {
 		}
 
 		int[] samples = new int[sampleSize];
-		// fill it with initial values in the range
-		for (int i = 0; i < sampleSize; i++) {
-			samples[i] = i + mStartOfRange;
-		}
-
-		// replace
-		for (int j = sampleSize; j < populationSize; j++) {
+		HashSet<Integer> chosen = new HashSet<Integer>(sampleSize * 2);
+		// for each j of the last sampleSize values, pick one of [0, j]; if taken, j itself is new
+		int count = 0;
+		for (int j = populationSize - sampleSize; j < populationSize; j++) {
 			int t = mRandGen.nextInt(j + 1);
-			if (t < sampleSize) {
-				samples[t] = j + mStartOfRange;
+			if (!chosen.add(t)) {
+				t = j;
+				chosen.add(j);
 			}
+			samples[count++] = t + mStartOfRange;
+		}
+
+		// the set is uniform but Floyd's order is not, larger values come later
+		for (int i = sampleSize - 1; i > 0; i--) {
+			int k = mRandGen.nextInt(i + 1);
+			int tmp = samples[i];
+			samples[i] = samples[k];
+			samples[k] = tmp;
 		}
 
 		return samples;
 	} // end of sampleWithOutReplacement()
 
-	public static String[] allA(int length) {
-		String[] array = new String[length];
-		for (int i = 0; i < length; i++) {
-			array[i] = "A";
-		}
-		return array;
-	}
-
 	/**
-	 * Sum(propAROS) = 1
-	 * 
-	 * @param length
+	 * Picks a command with the given proportions.
+	 *
 	 * @param propAROS
-	 *            int[] each value should be between 0-1 and represents the
-	 *            proportion of that command in return set. The three values
-	 *            should add up to 1
+	 *            each value should be between 0-1 and represents the
+	 *            proportion of that command.  The three values should add up
+	 *            to 1.
+	 * @return CommandParser.ADD, REMOVE_ONE or SEARCH.
 	 */
-	public static String[] randomAROS(int length, double[] propAROS) {
-		Random rand = new Random(System.currentTimeMillis());
-		String[] array = new String[length];
-
-		for (int i = 0; i < length; i++) {
-			double randNum = rand.nextDouble();
-			if (randNum < propAROS[0]) {
-				array[i] = "A";
-			} else if (randNum < propAROS[0] + propAROS[1]) {
-				array[i] = "RO";
-			} else {
-				array[i] = "S";
-			}
-		}
-		return array;
-	}
-
-	public static ArrayList<String> generateSamples(ArrayList<String> list, String samplingType, int sampleSize) {
-		int[] samples = null;
-		switch (samplingType) {
-		// sampling with replacement
-		case "with":
-			samples = sampleWithReplacement(sampleSize, 0, list.size() - 1);
-			break;
-		// sampling without replacement
-		case "without":
-			samples = sampleWithOutReplacement(sampleSize, 0, list.size() - 1);
-			break;
-		default:
-			System.err.println(samplingType + " is an unknown sampling type.");
+	public static int randomAROS(SplittableRandom rand, double[] propAROS) {
+		double randNum = rand.nextDouble();
+		if (randNum < propAROS[0]) {
+			return CommandParser.ADD;
+		} else if (randNum < propAROS[0] + propAROS[1]) {
+			return CommandParser.REMOVE_ONE;
+		} else {
+			return CommandParser.SEARCH;
 		}
-
-		ArrayList<String> result = new ArrayList<>(samples.length);
-		for (int i = 0; i < samples.length; i++) {
-			result.add(list.get(samples[i]));
-		}
-		return result;
-	}
+	} // end of randomAROS()
 
 	public static void readWordList() {
 		try {
 			Scanner in = new Scanner(new File(wordFile));
+			ArrayList<String> list = new ArrayList<>();
 			while (in.hasNextLine()) {
-				words.add(in.nextLine());
+				list.add(in.nextLine());
 			}
-			System.out.println("Size of Words: " + words.size());
 			in.close();
+			words = list.toArray(new String[list.size()]);
+			Arrays.sort(words);
+			System.out.println("Size of Words: " + words.length);
 		} catch (FileNotFoundException e) {
 			System.err.println("cannot find words_alpha.txt");
 			System.exit(0);
 		}
 	}
 
-	public static void writeDataFile(ArrayList<String> samples, String[] commands, String outFilename) {
-		try {
-			PrintWriter outFile = new PrintWriter(outFilename);
+	/**
+	 * Seed of an independent random sequence, derived from the seed with the
+	 * SplitMix64 finalizer so nearby streams are uncorrelated.
+	 */
+	private static long streamSeed(int stream) {
+		long z = seed + stream * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	} // end of streamSeed()
 
-			if (samples.size() != commands.length) {
-				outFile.close();
-				System.err.println("Sample size does not match length of command array.");
-				System.exit(0);
+	/**
+	 * @return Every pool index once, in the order the starting data of the
+	 *         given order first adds them.
+	 */
+	private static synchronized int[] rankedPool(int order) {
+		if (rankedPools[order] != null) {
+			return rankedPools[order];
+		}
+		int[] ranked = new int[pool.length];
+		if (order == RANDOM) {
+			for (int p = 0; p < pool.length; p++) {
+				ranked[p] = p;
 			}
+		}
+		else {
+			// pack dictionary index above pool index, so sorting orders by word
+			long[] packed = new long[pool.length];
+			for (int p = 0; p < pool.length; p++) {
+				packed[p] = ((long) pool[p] << 32) | p;
+			}
+			Arrays.sort(packed);
+			for (int i = 0; i < pool.length; i++) {
+				ranked[order == SORTED ? i : pool.length - 1 - i] = (int) packed[i];
+			}
+		}
+		rankedPools[order] = ranked;
+		return ranked;
+	} // end of rankedPool()
 
-			for (int i = 0; i < samples.size(); i++) {
-				String command = commands[i] + " " + samples.get(i);
-				outFile.println(command);
+	/**
+	 * @return Cumulative Zipfian weights of the ranks 1 to pool size.
+	 */
+	private static synchronized double[] zipfCdf() {
+		if (zipfCdf == null) {
+			zipfCdf = new double[pool.length];
+			double sum = 0;
+			for (int k = 0; k < pool.length; k++) {
+				sum += 1 / Math.pow(k + 1, zipfExponent);
+				zipfCdf[k] = sum;
 			}
+		}
+		return zipfCdf;
+	} // end of zipfCdf()
 
-			// outFile.println("P");
-			outFile.close();
-		} catch (FileNotFoundException e) {
-			System.err.println("cannot find words_alpha.txt");
-			System.exit(0);
+	/**
+	 * @param cdf Table from zipfCdf(), passed in so that drawing takes no lock.
+	 * @return Zipfian rank between 0 and pool size - 1, found by binary search
+	 *         of the cumulative weights.
+	 */
+	private static int zipfRank(SplittableRandom rand, double[] cdf) {
+		double u = rand.nextDouble() * cdf[cdf.length - 1];
+		int low = 0;
+		int high = cdf.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cdf[mid] < u) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	} // end of zipfRank()
+
+	/**
+	 * @return Occurrences of each pool word in the starting data, counted by a
+	 *         pass over the random order.
+	 */
+	private static synchronized int[] poolCounts() {
+		if (poolCounts == null) {
+			int[] counts = new int[pool.length];
+			SplittableRandom master = new SplittableRandom(streamSeed(0));
+			for (int start = 0; start < dataSize; start += CHUNK_SIZE) {
+				StartSequence random = new StartSequence(RANDOM, master.split(), start);
+				for (int i = start; i < Math.min(dataSize, start + CHUNK_SIZE); i++) {
+					counts[random.next()]++;
+				}
+			}
+			poolCounts = counts;
+		}
+		return poolCounts;
+	} // end of poolCounts()
+
+	/**
+	 * Starting data, as indices into pool, in one of the three orders, from
+	 * a given position on.
+	 *
+	 * The random order is every pool word once, then words drawn from the pool
+	 * with replacement, and is regenerated from its seed rather than stored.
+	 * The sorted and reverse orders only need how many times each pool word
+	 * occurs.
+	 */
+	private static class StartSequence
+	{
+		private final int mOrder;
+		private final SplittableRandom mRand;
+		private int mIndex;
+		/** Pool indices in word order or reverse word order, for SORTED and REVERSE. */
+		private int[] mByWord;
+		private int[] mCounts;
+		/** Position in mByWord and occurrences of it still to return. */
+		private int mWordPos;
+		private int mLeft;
+
+		/**
+		 * @param rand Random generator of the chunk starting at start, for RANDOM.
+		 * @param start Position in the starting data of the first word.
+		 */
+		StartSequence(int order, SplittableRandom rand, int start) {
+			mOrder = order;
+			mRand = rand;
+			mIndex = start;
+			if (order == RANDOM) {
+				return;
+			}
+
+			mCounts = poolCounts();
+			mByWord = rankedPool(order);
+			// skip to the word at start
+			mWordPos = 0;
+			int skipped = 0;
+			while (skipped + mCounts[mByWord[mWordPos]] <= start) {
+				skipped += mCounts[mByWord[mWordPos]];
+				mWordPos++;
+			}
+			mLeft = mCounts[mByWord[mWordPos]] - (start - skipped);
+		}
+
+		/**
+		 * @return Pool index of the next word.
+		 */
+		int next() {
+			if (mOrder == RANDOM) {
+				int i = mIndex++;
+				return i < pool.length ? i : mRand.nextInt(pool.length);
+			}
+			while (mLeft == 0) {
+				mWordPos++;
+				mLeft = mCounts[mByWord[mWordPos]];
+			}
+			mLeft--;
+			return mByWord[mWordPos];
+		}
+	} // end of inner class StartSequence
+
+	/**
+	 * Words of the testing sets, as indices into pool.
+	 *
+	 * Ranks count from the first word added by the starting data of the
+	 * order, so for example the hottest Zipfian words of the sorted sets are
+	 * the alphabetically first ones.
+	 */
+	private static class KeyChooser
+	{
+		private final int mDistribution;
+		private final SplittableRandom mRand;
+		/** Cumulative Zipfian weights, for ZIPF and LATEST. */
+		private final double[] mZipfCdf;
+		/** Words of UNIFORM, which follow the starting data. */
+		private StartSequence mSequence;
+		/** Pool indices by rank, for ZIPF, HOTSPOT and LATEST. */
+		private int[] mRanked;
+		/** Number of hot words of HOTSPOT. */
+		private int mHotNum;
+		/** Ring of the most recently added words of LATEST, newest at mNewest. */
+		private int[] mRecent;
+		private int mNewest;
+
+		/**
+		 * @param rand Random generator of the chunk, for the skewed distributions.
+		 * @param sequenceRand Random generator of the starting data chunk, for UNIFORM.
+		 * @param start Position in the file of the first word.
+		 * @param zipfCdf Table from zipfCdf(), for ZIPF and LATEST, otherwise null.
+		 */
+		KeyChooser(int order, int distribution, SplittableRandom rand, SplittableRandom sequenceRand, int start,
+				double[] zipfCdf) {
+			mDistribution = distribution;
+			mRand = rand;
+			mZipfCdf = zipfCdf;
+			if (distribution == UNIFORM) {
+				mSequence = new StartSequence(order, sequenceRand, start);
+				return;
+			}
+			mRanked = rankedPool(order);
+			mHotNum = Math.max(1, (int) Math.round(hotKeyFraction * pool.length));
+			if (distribution == LATEST) {
+				// the starting data added the words in rank order; each chunk
+				// starts from there so that chunks do not depend on each other
+				mRecent = mRanked.clone();
+				mNewest = mRecent.length - 1;
+			}
+		}
+
+		/**
+		 * @param op Command the word is for, LATEST treats adds differently.
+		 * @return Pool index of the next word.
+		 */
+		int next(int op) {
+			switch (mDistribution) {
+				case ZIPF:
+					return mRanked[zipfRank(mRand, mZipfCdf)];
+				case HOTSPOT:
+					if (mHotNum == mRanked.length || mRand.nextDouble() < hotOpFraction) {
+						return mRanked[mRand.nextInt(mHotNum)];
+					}
+					return mRanked[mHotNum + mRand.nextInt(mRanked.length - mHotNum)];
+				case LATEST:
+					if (op == CommandParser.ADD) {
+						// any word, which becomes the newest
+						mNewest = (mNewest + 1) % mRecent.length;
+						mRecent[mNewest] = mRanked[mRand.nextInt(mRanked.length)];
+						return mRecent[mNewest];
+					}
+					// Zipfian over how recently words were added
+					return mRecent[(mNewest - zipfRank(mRand, mZipfCdf) + mRecent.length) % mRecent.length];
+				default:
+					return mSequence.next();
+			}
+		}
+	} // end of inner class KeyChooser
+
+	/**
+	 * Streams dataSize commands to outFilename.
+	 *
+	 * The commands are generated in chunks of CHUNK_SIZE, each into its own
+	 * part file and with its own random generators split from the seeds in
+	 * chunk order, on all threads.  The parts are then concatenated with file
+	 * channel transfers, so the file is the same whatever the number of threads.
+	 *
+	 * @param order Order of the starting data the words follow or are ranked by.
+	 * @param distribution Key distribution, UNIFORM follows the starting data.
+	 * @param propAROS Proportions of add, remove one and search, null for all adds.
+	 * @param opSeed Seed of the command and word choices.
+	 */
+	public static void writeDataFile(final int order, final int distribution, final double[] propAROS, long opSeed,
+			String outFilename) throws IOException {
+		final boolean binary = outFilename.endsWith(Workload.EXTENSION);
+		// shared tables are built here, not by the first chunks to need them
+		rankedPool(order);
+		if (distribution == UNIFORM && order != RANDOM) {
+			poolCounts();
+		}
+		final double[] cdf = distribution == ZIPF || distribution == LATEST ? zipfCdf() : null;
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		SplittableRandom opMaster = new SplittableRandom(opSeed);
+		SplittableRandom sequenceMaster = new SplittableRandom(streamSeed(0));
+		List<Future<File>> parts = new ArrayList<Future<File>>();
+		for (int start = 0; start < dataSize; start += CHUNK_SIZE) {
+			final int chunkStart = start;
+			final int chunkEnd = Math.min(dataSize, start + CHUNK_SIZE);
+			final SplittableRandom opRand = opMaster.split();
+			final SplittableRandom sequenceRand = sequenceMaster.split();
+			final File part = new File(outFilename + ".part" + (start / CHUNK_SIZE));
+			parts.add(executor.submit(new Callable<File>() {
+				public File call() throws IOException {
+					writeChunk(order, distribution, propAROS, cdf, opRand, sequenceRand, chunkStart, chunkEnd, binary, part);
+					return part;
+				}
+			}));
+		}
+		executor.shutdown();
+
+		try (FileChannel out = FileChannel.open(new File(outFilename).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			if (binary) {
+				String[] dictionary = new String[pool.length];
+				for (int p = 0; p < pool.length; p++) {
+					dictionary[p] = words[pool[p]];
+				}
+				ByteArrayOutputStream header = new ByteArrayOutputStream();
+				WorkloadWriter.writeHeader(header, dictionary, dictionary.length, dataSize);
+				ByteBuffer buf = ByteBuffer.wrap(header.toByteArray());
+				while (buf.hasRemaining()) {
+					out.write(buf);
+				}
+			}
+
+			for (Future<File> future : parts) {
+				File part = getPart(future, parts);
+				try (FileChannel in = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+					long size = in.size();
+					long position = 0;
+					while (position < size) {
+						position += in.transferTo(position, size - position, out);
+					}
+				}
+				part.delete();
+			}
 		}
 	}
 
-	public static void createStartingDataSets(ArrayList<ArrayList<String>> samplePool, int poolSize, int finalSize, int extras,
-			String outFilename) {
-		ArrayList<String> samples = generateSamples(words, "without", poolSize + extras);
-		ArrayList<String> originals = new ArrayList<>();
-		originals.addAll(samples);
-		for (int i = 0; i < extras; i++) {
-			samples.remove(0); // takes out all the extras
+	/**
+	 * Waits for one part file.  If its chunk failed, the rest are cancelled,
+	 * all part files are removed and the failure is thrown.
+	 */
+	private static File getPart(Future<File> future, List<Future<File>> parts) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			for (Future<File> other : parts) {
+				other.cancel(false);
+				try {
+					other.get().delete();
+				} catch (InterruptedException | ExecutionException | CancellationException ignored) {
+					// never written or already reported
+				}
+			}
+			Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+		}
+	} // end of getPart()
+
+	/**
+	 * Writes the commands from chunkStart up to chunkEnd to part, without a
+	 * workload header.
+	 */
+	private static void writeChunk(int order, int distribution, double[] propAROS, double[] zipfCdf,
+			SplittableRandom opRand, SplittableRandom sequenceRand, int chunkStart, int chunkEnd, boolean binary, File part)
+			throws IOException {
+		KeyChooser sequence = new KeyChooser(order, distribution, opRand, sequenceRand, chunkStart, zipfCdf);
+		if (binary) {
+			OutputStream partOut = new BufferedOutputStream(new FileOutputStream(part), 1 << 16);
+			try (WorkloadWriter outFile = WorkloadWriter.operationsOnly(partOut, pool.length, chunkEnd - chunkStart)) {
+				for (int i = chunkStart; i < chunkEnd; i++) {
+					int op = propAROS == null ? CommandParser.ADD : randomAROS(opRand, propAROS);
+					outFile.write(op, sequence.next(op));
+				}
+			}
+			return;
 		}
-		samples.addAll(generateSamples(samples, "with", finalSize - poolSize));
-		String[] commands = allA(samples.size());
+
+		String[] names = { "A", "S", "RO" };
+		try (PrintWriter outFile = new PrintWriter(new BufferedWriter(new FileWriter(part), 1 << 16))) {
+			for (int i = chunkStart; i < chunkEnd; i++) {
+				int op = propAROS == null ? CommandParser.ADD : randomAROS(opRand, propAROS);
+				outFile.println(names[op] + " " + words[pool[sequence.next(op)]]);
+			}
+			// outFile.println("P");
+			if (outFile.checkError()) {
+				throw new IOException("cannot write " + part);
+			}
+		}
+	} // end of writeChunk()
+
+	public static void createStartingDataSets(int poolSize, int finalSize, String outFilename) throws IOException {
+		pool = sampleWithOutReplacement(poolSize, 0, words.length - 1);
+		dataSize = finalSize;
+		poolCounts = null;
+		zipfCdf = null;
+		rankedPools = new int[3][];
 		//random
-		ArrayList<String> random = new ArrayList<>(samples);
-		writeDataFile(samples, commands, "random" +outFilename);
-		samplePool.add(random);
+		writeDataFile(RANDOM, UNIFORM, null, 0, "random" + outFilename);
 		//sorted
-		Collections.sort(samples);
-		ArrayList<String> sorted = new ArrayList<>(samples);
-		writeDataFile(samples, commands, "sorted" + outFilename);
-		samplePool.add(sorted);
+		writeDataFile(SORTED, UNIFORM, null, 0, "sorted" + outFilename);
 		//reverse
-		Collections.reverse(samples);
-		ArrayList<String> reverse = new ArrayList<>(samples);
-		writeDataFile(samples, commands, "reverse" + outFilename);
-		System.out.println("Sample size: " + samples.size());
-		samplePool.add(reverse);
+		writeDataFile(REVERSE, UNIFORM, null, 0, "reverse" + outFilename);
+		System.out.println("Sample size: " + dataSize);
 	}
 
-	public static void createTestingSets(ArrayList<String> samples, int finalSize, int extras, double[] propAROS,
-			String outFilename) {
-		ArrayList<String> tester = new ArrayList<>();
-		tester.addAll(samples);
-		// tester.addAll(generateSamples(words, "without", extras));
-		tester.addAll(generateSamples(tester, "with", finalSize - tester.size()));
-		String[] commands = randomAROS(tester.size(), propAROS);
-		//Collections.shuffle(tester);
-		writeDataFile(tester, commands, outFilename);
-		System.out.println("Tester size: " + tester.size());
+	public static void createTestingSets(int order, int distribution, double[] propAROS, long opSeed, String outFilename)
+			throws IOException {
+		writeDataFile(order, distribution, propAROS, opSeed, outFilename);
+		System.out.println("Tester size: " + dataSize);
 	}
 
 
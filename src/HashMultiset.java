@@ -1,5 +1,4 @@
 
-import java.io.PrintStream;
 import java.util.*;
 
 /**
@@ -64,14 +63,44 @@ public class HashMultiset<T> extends Multiset<T>
 	} // end of removeAll()
 
 
-	public void print(PrintStream out) {
-		Iterator mit = mMap.entrySet().iterator();
-		while (mit.hasNext()) {
-			// need to suppress warning because of we are casting parameterised types
-			@SuppressWarnings("unchecked")
-			Map.Entry<T, Integer> entry = (Map.Entry<T, Integer>) mit.next();
-			out.println(entry.getKey() + printDelim + entry.getValue());
+	/**
+	 * Rebuilds the map once at a capacity that fits the whole batch, rather than
+	 * letting it double several times part way through.  Only done for batches
+	 * at least as large as the map, so the copy never costs more than the batch.
+	 */
+	public void addAll(Collection<? extends T> items) {
+		int expected = mMap.size() + items.size();
+		if (expected > 12 && items.size() >= mMap.size()) {
+			HashMap<T, Integer> presized = new HashMap<T, Integer>((int) (expected / 0.75f) + 1);
+			presized.putAll(mMap);
+			mMap = presized;
 		}
-	} // end of print()
+
+		for (T item : items) {
+			mMap.merge(item, 1, Integer::sum);
+		}
+	} // end of addAll()
+
+
+	public EntryIterator<T> entryIterator() {
+		final Iterator<Map.Entry<T, Integer>> mit = mMap.entrySet().iterator();
+		return new EntryIterator<T>() {
+			private int mCount = 0;
+
+			public boolean hasNext() {
+				return mit.hasNext();
+			}
+
+			public T next() {
+				Map.Entry<T, Integer> entry = mit.next();
+				mCount = entry.getValue();
+				return entry.getKey();
+			}
+
+			public int count() {
+				return mCount;
+			}
+		};
+	} // end of entryIterator()
 
 } // end of class HashMultiset
@@ -0,0 +1,13 @@
+/**
+ * Implemented by multisets that can count their own algorithmic work into a
+ * CostCounters, for InstrumentedMultiset.
+ */
+public interface Instrumentable
+{
+	/**
+	 * Starts counting into counters, or stops counting if counters is null.
+	 * Counting is off by default.
+	 */
+	void setCostCounters(CostCounters counters);
+
+} // end of interface Instrumentable
@@ -0,0 +1,187 @@
+import java.io.PrintStream;
+
+/**
+ * Decorator that counts the algorithmic work of another multiset, per
+ * operation type, so cost can be compared separately from wall time.
+ *
+ * Before each add, search, removeOne and removeAll it attaches the counters
+ * of that operation type to the wrapped multiset, which must implement
+ * Instrumentable to count anything.  The bulk operations are not forwarded,
+ * so they run one element at a time through the scalar operations and the
+ * counters describe the cost of each single operation.
+ *
+ * @param T Type of elements that the multiset can hold.
+ */
+public class InstrumentedMultiset<T> extends Multiset<T>
+{
+	/** Per-op labels for reports, indexed by CommandParser operation code. */
+	private static final String[] OP_NAMES = { "A", "S", "RO", "RA" };
+
+	/** Wrapped multiset. */
+	protected Multiset<T> mInner;
+	/** Counters of each operation type, indexed by CommandParser operation code. */
+	protected CostCounters[] mCounters;
+
+
+	public InstrumentedMultiset(Multiset<T> inner) {
+		mInner = inner;
+		mCounters = new CostCounters[OP_NAMES.length];
+		for (int i = 0; i < mCounters.length; i++) {
+			mCounters[i] = new CostCounters();
+		}
+	} // end of InstrumentedMultiset()
+
+
+	/**
+	 * @return True if the wrapped multiset counts its work; if not, only the
+	 *         number of operations is counted.
+	 */
+	public boolean isInstrumented() {
+		return mInner instanceof Instrumentable;
+	} // end of isInstrumented()
+
+
+	public void add(T item) {
+		attach(CommandParser.ADD);
+		mInner.add(item);
+	} // end of add()
+
+
+	public int search(T item) {
+		attach(CommandParser.SEARCH);
+		return mInner.search(item);
+	} // end of search()
+
+
+	public void removeOne(T item) {
+		attach(CommandParser.REMOVE_ONE);
+		mInner.removeOne(item);
+	} // end of removeOne()
+
+
+	public void removeAll(T item) {
+		attach(CommandParser.REMOVE_ALL);
+		mInner.removeAll(item);
+	} // end of removeAll()
+
+
+	/**
+	 * Iteration is not counted.
+	 */
+	public EntryIterator<T> entryIterator() {
+		if (isInstrumented()) {
+			((Instrumentable) mInner).setCostCounters(null);
+		}
+		return mInner.entryIterator();
+	} // end of entryIterator()
+
+
+	/**
+	 * Printing is not counted.
+	 */
+	public void print(PrintStream out) {
+		if (isInstrumented()) {
+			((Instrumentable) mInner).setCostCounters(null);
+		}
+		mInner.print(out);
+	} // end of print()
+
+
+	public boolean isSorted() {
+		return mInner.isSorted();
+	} // end of isSorted()
+
+
+	/**
+	 * Restoring is not counted.
+	 */
+	protected void restoreEntries(SortedEntries<T> entries, boolean sorted) {
+		if (isInstrumented()) {
+			((Instrumentable) mInner).setCostCounters(null);
+		}
+		mInner.restoreEntries(entries, sorted);
+	} // end of restoreEntries()
+
+
+	/**
+	 * @param op CommandParser.ADD, SEARCH, REMOVE_ONE or REMOVE_ALL.
+	 * @return Counters of that operation type.
+	 */
+	public CostCounters counters(int op) {
+		return mCounters[op];
+	} // end of counters()
+
+
+	/**
+	 * @return Sum of the counters of all operation types.
+	 */
+	public CostCounters total() {
+		CostCounters total = new CostCounters();
+		for (CostCounters counters : mCounters) {
+			total.add(counters);
+		}
+		return total;
+	} // end of total()
+
+
+	public void reset() {
+		for (CostCounters counters : mCounters) {
+			counters.reset();
+		}
+	} // end of reset()
+
+
+	private void attach(int op) {
+		CostCounters counters = mCounters[op];
+		counters.mOperations++;
+		if (isInstrumented()) {
+			((Instrumentable) mInner).setCostCounters(counters);
+		}
+	} // end of attach()
+
+
+	/**
+	 * Builds a multiset of the named implementation from start, uncounted,
+	 * then counts the work of replaying ops on it.
+	 *
+	 * @return The counted multiset, null if the name is unknown.
+	 */
+	public static InstrumentedMultiset<String> measure(String implementationType, Workload start, Workload ops) {
+		Multiset<String> inner = MultisetBenchmark.createMultiset(implementationType);
+		if (inner == null) {
+			return null;
+		}
+		start.replay(inner, null);
+		InstrumentedMultiset<String> multiset = new InstrumentedMultiset<String>(inner);
+		ops.replay(multiset, null);
+		return multiset;
+	} // end of measure()
+
+
+	/**
+	 * Prints one row per operation type that was executed: count, then
+	 * comparisons, nodes visited, allocations and restructures per operation.
+	 *
+	 * @param implementation Name of the implementation the counts are for.
+	 */
+	public void printReport(String implementation, PrintStream out) {
+		out.printf("%-20s %-3s %10s %10s %10s %10s %10s  (#/op)%n", "implementation", "op", "count",
+				"compares", "visits", "allocs", "restructs");
+		for (int op = 0; op < mCounters.length; op++) {
+			CostCounters counters = mCounters[op];
+			if (counters.operations() == 0) {
+				continue;
+			}
+			if (isInstrumented()) {
+				out.printf("%-20s %-3s %10d %10.2f %10.2f %10.2f %10.4f%n", implementation, OP_NAMES[op], counters.operations(),
+						counters.perOperation(counters.comparisons()), counters.perOperation(counters.nodesVisited()),
+						counters.perOperation(counters.allocations()), counters.perOperation(counters.restructures()));
+			}
+			else {
+				out.printf("%-20s %-3s %10d %10s %10s %10s %10s%n", implementation, OP_NAMES[op], counters.operations(),
+						"n/a", "n/a", "n/a", "n/a");
+			}
+		}
+	} // end of printReport()
+
+} // end of class InstrumentedMultiset
@@ -0,0 +1,645 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Decorator that makes a multiset survive restarts by appending every
+ * mutation to a journal file, without paying for an fsync per mutation.
+ *
+ * Group commit: mutations are encoded into a buffer, and a background
+ * flusher writes the buffer out and fsyncs the journal once the buffer
+ * holds mGroupBytes, or mGroupMillis after the previous commit, whichever
+ * comes first.  Mutations return without waiting for the fsync, so a crash
+ * loses at most the last group; sync() waits for everything so far.
+ *
+ * The directory holds generations of files.  snapshot.<g> (a
+ * MultisetSnapshot) is the state before journal.<g>, which holds the
+ * mutations after it.  Opening the directory recovers the state from the
+ * latest snapshot plus the journals from its generation on, dropping a
+ * torn record at the end of the last journal, then starts a new journal.
+ * Once the current journal passes mCompactBytes, it is closed, a new one is
+ * started, and a background thread writes the state at that point as the
+ * next snapshot and deletes the older files.
+ *
+ * Journal layout: int magic 'MJNL', byte version, then records of byte
+ * operation (CommandParser.ADD, REMOVE_ONE or REMOVE_ALL), varint key
+ * length and UTF-8 key bytes.  Keys are read back as Strings, so this is
+ * for multisets of String.
+ *
+ * Mutations and searches take the lock of this object, so the background
+ * threads see a consistent multiset; entryIterator() does not.
+ *
+ * @param T Type of elements that the multiset can hold.
+ */
+public class JournaledMultiset<T> extends Multiset<T> implements Closeable
+{
+	/** 'MJNL' */
+	static final int MAGIC = 0x4D4A4E4C;
+	static final int VERSION = 1;
+	private static final int HEADER_SIZE = 5;
+	public static final int DEFAULT_GROUP_BYTES = 1 << 16;
+	public static final long DEFAULT_GROUP_MILLIS = 10;
+	public static final long DEFAULT_COMPACT_BYTES = 64L << 20;
+
+	/** Wrapped multiset. */
+	protected Multiset<T> mInner;
+	protected Path mDirectory;
+	/** Generation of the journal being appended to. */
+	protected long mGeneration;
+	protected FileChannel mJournal;
+	/** Bytes in the current journal, header and buffer included. */
+	protected long mJournalBytes;
+	/** Encoded records not yet written to mJournal. */
+	protected ByteBuffer mBuffer;
+	/** True if bytes were written to mJournal since it was last forced. */
+	protected boolean mUnforced;
+	protected int mGroupBytes;
+	protected long mGroupMillis;
+	protected long mCompactBytes;
+
+	protected long mRecords;
+	protected long mGroupCommits;
+	protected long mCompactions;
+
+	/** True while a compaction writes its snapshot. */
+	protected boolean mCompacting;
+	protected boolean mClosed;
+	/** First error of a background thread, rethrown by the next mutation. */
+	protected IOException mFailure;
+	protected Thread mFlusher;
+	protected Thread mCompactor;
+
+
+	/**
+	 * Recovers from directory with the default group and compaction sizes.
+	 */
+	public JournaledMultiset(Multiset<T> inner, Path directory) throws IOException {
+		this(inner, directory, DEFAULT_GROUP_BYTES, DEFAULT_GROUP_MILLIS, DEFAULT_COMPACT_BYTES);
+	} // end of JournaledMultiset()
+
+
+	/**
+	 * Recovers the state saved in directory into inner, which should be
+	 * empty, and starts journaling to it.
+	 *
+	 * @param inner Multiset to hold the state.
+	 * @param directory Directory of the snapshots and journals, created if missing.
+	 * @param groupBytes Bytes of records that trigger a group commit.
+	 * @param groupMillis Longest a record waits for its group commit.
+	 * @param compactBytes Journal size that triggers a compaction.
+	 */
+	public JournaledMultiset(Multiset<T> inner, Path directory, int groupBytes, long groupMillis, long compactBytes)
+			throws IOException {
+		if (groupBytes < 1 || groupMillis < 1 || compactBytes < 1) {
+			throw new IllegalArgumentException("Group and compaction sizes must be positive.");
+		}
+		mInner = inner;
+		mDirectory = directory;
+		mGroupBytes = groupBytes;
+		mGroupMillis = groupMillis;
+		mCompactBytes = compactBytes;
+		mBuffer = ByteBuffer.allocate(Math.max(2 * groupBytes, 1 << 12));
+
+		Files.createDirectories(directory);
+		mGeneration = recover() + 1;
+		mJournal = createJournal(mGeneration);
+		mJournalBytes = HEADER_SIZE;
+
+		mFlusher = new Thread(new Runnable() {
+			public void run() {
+				flushLoop();
+			}
+		}, "journal-flusher");
+		mFlusher.setDaemon(true);
+		mFlusher.start();
+	} // end of JournaledMultiset()
+
+
+	public synchronized void add(T item) {
+		mInner.add(item);
+		append(CommandParser.ADD, item);
+		maybeCompact();
+	} // end of add()
+
+
+	public synchronized int search(T item) {
+		return mInner.search(item);
+	} // end of search()
+
+
+	public synchronized void removeOne(T item) {
+		mInner.removeOne(item);
+		append(CommandParser.REMOVE_ONE, item);
+		maybeCompact();
+	} // end of removeOne()
+
+
+	public synchronized void removeAll(T item) {
+		mInner.removeAll(item);
+		append(CommandParser.REMOVE_ALL, item);
+		maybeCompact();
+	} // end of removeAll()
+
+
+	public synchronized void addAll(Collection<? extends T> items) {
+		mInner.addAll(items);
+		for (T item : items) {
+			append(CommandParser.ADD, item);
+		}
+		maybeCompact();
+	} // end of addAll()
+
+
+	public synchronized int[] searchAll(T[] items) {
+		return mInner.searchAll(items);
+	} // end of searchAll()
+
+
+	public synchronized void removeAll(Collection<? extends T> items) {
+		mInner.removeAll(items);
+		for (T item : items) {
+			append(CommandParser.REMOVE_ALL, item);
+		}
+		maybeCompact();
+	} // end of removeAll()
+
+
+	public EntryIterator<T> entryIterator() {
+		return mInner.entryIterator();
+	} // end of entryIterator()
+
+
+	public void print(PrintStream out) {
+		mInner.print(out);
+	} // end of print()
+
+
+	public boolean isSorted() {
+		return mInner.isSorted();
+	} // end of isSorted()
+
+
+	/**
+	 * Writes out and fsyncs every mutation made so far.
+	 */
+	public void sync() throws IOException {
+		FileChannel journal;
+		synchronized (this) {
+			checkFailure();
+			writeBuffer();
+			journal = mJournal;
+		}
+		force(journal);
+	} // end of sync()
+
+
+	/**
+	 * Syncs the journal, waits for the background threads and closes the journal.
+	 */
+	public void close() throws IOException {
+		Thread compactor;
+		synchronized (this) {
+			if (mClosed) {
+				return;
+			}
+			mClosed = true;
+			notifyAll();
+			compactor = mCompactor;
+		}
+		try {
+			mFlusher.join();
+			if (compactor != null) {
+				compactor.join();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			writeBuffer();
+			mJournal.force(false);
+			mJournal.close();
+			checkFailure();
+		}
+	} // end of close()
+
+
+	public synchronized long records() {
+		return mRecords;
+	} // end of records()
+
+
+	public synchronized long groupCommits() {
+		return mGroupCommits;
+	} // end of groupCommits()
+
+
+	public synchronized long compactions() {
+		return mCompactions;
+	} // end of compactions()
+
+
+	/**
+	 * Prints the records journaled, group commits, records per commit and compactions.
+	 *
+	 * @param implementation Name of the implementation the statistics are for.
+	 */
+	public synchronized void printStats(String implementation, PrintStream out) {
+		out.printf("%-24s records %d, group commits %d, records per commit %.1f, compactions %d%n", implementation,
+				mRecords, mGroupCommits, mGroupCommits == 0 ? 0.0 : (double) mRecords / mGroupCommits, mCompactions);
+	} // end of printStats()
+
+
+	/**
+	 * Encodes one record into the buffer; caller holds the lock.
+	 */
+	private void append(int op, T item) {
+		try {
+			checkFailure();
+			byte[] key = String.valueOf(item).getBytes(StandardCharsets.UTF_8);
+			// op byte and a varint of at most five bytes
+			int size = key.length + 6;
+			if (mBuffer.remaining() < size) {
+				writeBuffer();
+			}
+			if (mBuffer.remaining() < size) {
+				ByteBuffer record = ByteBuffer.allocate(size);
+				encode(record, op, key);
+				record.flip();
+				mJournalBytes += record.remaining();
+				writeFully(mJournal, record);
+				mUnforced = true;
+			}
+			else {
+				int start = mBuffer.position();
+				encode(mBuffer, op, key);
+				mJournalBytes += mBuffer.position() - start;
+			}
+			mRecords++;
+
+			if (mBuffer.position() >= mGroupBytes) {
+				notifyAll();
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	} // end of append()
+
+
+	/**
+	 * Compacts if the journal has grown past mCompactBytes.  Called only once
+	 * every record of a mutation is appended, so the copied state matches the
+	 * end of the old journal; caller holds the lock.
+	 */
+	private void maybeCompact() {
+		if (mJournalBytes < mCompactBytes || mCompacting) {
+			return;
+		}
+		try {
+			startCompaction();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	} // end of maybeCompact()
+
+
+	private static void encode(ByteBuffer buffer, int op, byte[] key) {
+		buffer.put((byte) op);
+		int value = key.length;
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+		buffer.put(key);
+	} // end of encode()
+
+
+	/**
+	 * Writes the buffered records to the journal without forcing; caller holds the lock.
+	 */
+	private void writeBuffer() throws IOException {
+		if (mBuffer.position() == 0) {
+			return;
+		}
+		mBuffer.flip();
+		writeFully(mJournal, mBuffer);
+		mBuffer.clear();
+		mUnforced = true;
+	} // end of writeBuffer()
+
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	} // end of writeFully()
+
+
+	/**
+	 * Forces journal outside the lock, so mutations carry on during the fsync.
+	 * Only a group that this call forced counts as a group commit.
+	 */
+	private void force(FileChannel journal) throws IOException {
+		try {
+			journal.force(false);
+		}
+		catch (ClosedChannelException e) {
+			// the journal was rotated, which forced it first
+			return;
+		}
+		synchronized (this) {
+			mGroupCommits++;
+		}
+	} // end of force()
+
+
+	/**
+	 * Body of the flusher thread: commits a group when the buffer fills or
+	 * the time window ends, until the multiset is closed.
+	 */
+	private void flushLoop() {
+		try {
+			while (true) {
+				FileChannel journal;
+				synchronized (this) {
+					long deadline = System.currentTimeMillis() + mGroupMillis;
+					long wait;
+					while (!mClosed && mBuffer.position() < mGroupBytes
+							&& (wait = deadline - System.currentTimeMillis()) > 0) {
+						wait(wait);
+					}
+					if (mClosed) {
+						return;
+					}
+					writeBuffer();
+					if (!mUnforced) {
+						continue;
+					}
+					mUnforced = false;
+					journal = mJournal;
+				}
+				force(journal);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e) {
+			fail(e);
+		}
+	} // end of flushLoop()
+
+
+	/**
+	 * Rotates to a new journal and copies the state, then hands the copy to a
+	 * thread that writes it as the snapshot of the new generation; caller
+	 * holds the lock.
+	 */
+	private void startCompaction() throws IOException {
+		writeBuffer();
+		mJournal.force(false);
+		mJournal.close();
+		mUnforced = false;
+		mGeneration++;
+		mJournal = createJournal(mGeneration);
+		mJournalBytes = HEADER_SIZE;
+
+		final SortedEntries<T> state = new SortedEntries<T>(16);
+		mInner.forEachEntry(state::append);
+		final boolean sorted = mInner.isSorted();
+		final long generation = mGeneration;
+		mCompacting = true;
+		mCompactor = new Thread(new Runnable() {
+			public void run() {
+				boolean written = false;
+				try {
+					writeSnapshot(state, sorted, generation);
+					written = true;
+				}
+				catch (IOException e) {
+					fail(e);
+				}
+				finally {
+					synchronized (JournaledMultiset.this) {
+						mCompacting = false;
+						// failed compactions are not counted
+						if (written) {
+							mCompactions++;
+						}
+					}
+				}
+			}
+		}, "journal-compactor");
+		mCompactor.setDaemon(true);
+		mCompactor.start();
+	} // end of startCompaction()
+
+
+	/**
+	 * Writes snapshot.<generation> through a temporary file, so it only
+	 * appears once complete, then deletes the files it makes obsolete.
+	 */
+	private void writeSnapshot(SortedEntries<T> state, boolean sorted, long generation) throws IOException {
+		Path temp = mDirectory.resolve("snapshot." + generation + ".tmp");
+		MultisetSnapshot.write(state.entryIterator(), sorted, temp);
+		Files.move(temp, mDirectory.resolve("snapshot." + generation), StandardCopyOption.ATOMIC_MOVE);
+
+		for (Path path : listFiles("snapshot.")) {
+			if (generationOf(path, "snapshot.") < generation) {
+				Files.deleteIfExists(path);
+			}
+		}
+		for (Path path : listFiles("journal.")) {
+			if (generationOf(path, "journal.") < generation) {
+				Files.deleteIfExists(path);
+			}
+		}
+	} // end of writeSnapshot()
+
+
+	/**
+	 * Restores the latest snapshot and replays the journals after it.
+	 *
+	 * @return Highest generation found, 0 if the directory is empty.
+	 */
+	private long recover() throws IOException {
+		long snapshotGeneration = 0;
+		long latest = 0;
+		for (Path path : listFiles("snapshot.")) {
+			if (path.getFileName().toString().endsWith(".tmp")) {
+				// a compaction that did not finish
+				Files.delete(path);
+				continue;
+			}
+			snapshotGeneration = Math.max(snapshotGeneration, generationOf(path, "snapshot."));
+		}
+		if (snapshotGeneration > 0) {
+			mInner.restore(mDirectory.resolve("snapshot." + snapshotGeneration));
+		}
+		latest = snapshotGeneration;
+
+		List<Path> journals = listFiles("journal.");
+		Collections.sort(journals, new Comparator<Path>() {
+			public int compare(Path a, Path b) {
+				return Long.compare(generationOf(a, "journal."), generationOf(b, "journal."));
+			}
+		});
+		for (Path path : journals) {
+			long generation = generationOf(path, "journal.");
+			if (generation >= snapshotGeneration) {
+				replay(path);
+			}
+			latest = Math.max(latest, generation);
+		}
+		return latest;
+	} // end of recover()
+
+
+	/**
+	 * Applies the records of one journal to the wrapped multiset, and cuts
+	 * off a record torn by a crash at its end.  Runs of adds and of remove
+	 * alls go through the bulk operations.
+	 */
+	@SuppressWarnings("unchecked")
+	private void replay(Path path) throws IOException {
+		long valid = 0;
+		List<T> run = new ArrayList<T>();
+		int runOp = CommandParser.ADD;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+				throw new IOException(path + ": not a journal.");
+			}
+			valid = HEADER_SIZE;
+			byte[] bytes = new byte[64];
+			while (true) {
+				int op = in.read();
+				if (op < 0) {
+					break;
+				}
+				int length = 0;
+				int read = 1;
+				for (int shift = 0; ; shift += 7) {
+					int b = in.readUnsignedByte();
+					read++;
+					length |= (b & 0x7F) << shift;
+					if ((b & 0x80) == 0) {
+						break;
+					}
+					if (shift >= 28) {
+						throw new EOFException();
+					}
+				}
+				if (length > bytes.length) {
+					bytes = new byte[Math.max(length, bytes.length * 2)];
+				}
+				in.readFully(bytes, 0, length);
+				if (op != CommandParser.ADD && op != CommandParser.REMOVE_ONE && op != CommandParser.REMOVE_ALL) {
+					throw new EOFException();
+				}
+				T item = (T) new String(bytes, 0, length, StandardCharsets.UTF_8);
+				valid += read + length;
+
+				if (op != runOp) {
+					applyRun(runOp, run);
+					runOp = op;
+				}
+				if (op == CommandParser.REMOVE_ONE) {
+					mInner.removeOne(item);
+				}
+				else {
+					run.add(item);
+				}
+			}
+		}
+		catch (EOFException e) {
+			System.err.println(path + ": dropping torn record at byte " + valid + ".");
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				channel.truncate(valid);
+			}
+		}
+		applyRun(runOp, run);
+	} // end of replay()
+
+
+	/**
+	 * Applies a run of consecutive adds or remove alls through the bulk
+	 * operation, and empties it.
+	 */
+	private void applyRun(int op, List<T> run) {
+		if (run.isEmpty()) {
+			return;
+		}
+		if (op == CommandParser.ADD) {
+			mInner.addAll(run);
+		}
+		else {
+			mInner.removeAll(run);
+		}
+		run.clear();
+	} // end of applyRun()
+
+
+	private FileChannel createJournal(long generation) throws IOException {
+		FileChannel journal = FileChannel.open(mDirectory.resolve("journal." + generation), StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.put((byte) VERSION);
+		header.flip();
+		writeFully(journal, header);
+		journal.force(true);
+		return journal;
+	} // end of createJournal()
+
+
+	/**
+	 * @return Files of the directory named prefix followed by a generation.
+	 */
+	private List<Path> listFiles(String prefix) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(mDirectory, prefix + "*")) {
+			for (Path path : stream) {
+				files.add(path);
+			}
+		}
+		return files;
+	} // end of listFiles()
+
+
+	/**
+	 * @return Generation in the name of path, after prefix and before any
+	 *         further dot.
+	 */
+	private static long generationOf(Path path, String prefix) {
+		String name = path.getFileName().toString().substring(prefix.length());
+		int dot = name.indexOf('.');
+		try {
+			return Long.parseLong(dot < 0 ? name : name.substring(0, dot));
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	} // end of generationOf()
+
+
+	private synchronized void fail(IOException e) {
+		if (mFailure == null) {
+			mFailure = e;
+		}
+	} // end of fail()
+
+
+	private void checkFailure() throws IOException {
+		if (mFailure != null) {
+			throw new IOException("Journal failed in the background: " + mFailure.getMessage(), mFailure);
+		}
+	} // end of checkFailure()
+
+} // end of class JournaledMultiset
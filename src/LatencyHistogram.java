@@ -0,0 +1,170 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, in the style
+ * of HdrHistogram: values below 128 get a bucket each, and every power of two
+ * above that is split into 64 equal buckets, so any recorded value is known
+ * to within 1/64 (about 1.6%).  Recording is an index computation and an
+ * array increment, with no allocation.
+ */
+public class LatencyHistogram
+{
+	/** Bits of precision kept below the leading one bit. */
+	private static final int SUB_BITS = 7;
+	/** Values below this are counted exactly. */
+	private static final int LINEAR = 1 << SUB_BITS;
+	/** Buckets per power of two above LINEAR. */
+	private static final int HALF = LINEAR / 2;
+	/** Percentiles printed by the reports. */
+	private static final double[] REPORT_PERCENTILES = { 50, 90, 99, 99.9 };
+
+	/** Per-op labels for reports, indexed by CommandParser operation code. */
+	private static final String[] OP_NAMES = { "A", "S", "RO", "RA" };
+
+	protected final long[] mCounts;
+	protected long mTotalCount;
+	protected long mTotalNanos;
+	protected long mMax;
+
+
+	public LatencyHistogram() {
+		mCounts = new long[LINEAR + (64 - SUB_BITS) * HALF];
+		reset();
+	} // end of LatencyHistogram()
+
+
+	/**
+	 * @return One empty histogram per timed operation, indexed by
+	 *         CommandParser.ADD, SEARCH, REMOVE_ONE and REMOVE_ALL.
+	 */
+	public static LatencyHistogram[] forOperations() {
+		LatencyHistogram[] histograms = new LatencyHistogram[OP_NAMES.length];
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+		return histograms;
+	} // end of forOperations()
+
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		mCounts[index(nanos)]++;
+		mTotalCount++;
+		mTotalNanos += nanos;
+		if (nanos > mMax) {
+			mMax = nanos;
+		}
+	} // end of record()
+
+
+	public void reset() {
+		Arrays.fill(mCounts, 0);
+		mTotalCount = 0;
+		mTotalNanos = 0;
+		mMax = 0;
+	} // end of reset()
+
+
+	/**
+	 * Adds the counts of other into this histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < mCounts.length; i++) {
+			mCounts[i] += other.mCounts[i];
+		}
+		mTotalCount += other.mTotalCount;
+		mTotalNanos += other.mTotalNanos;
+		mMax = Math.max(mMax, other.mMax);
+	} // end of add()
+
+
+	public long count() {
+		return mTotalCount;
+	} // end of count()
+
+
+	public long max() {
+		return mMax;
+	} // end of max()
+
+
+	public double mean() {
+		return mTotalCount == 0 ? 0 : (double) mTotalNanos / mTotalCount;
+	} // end of mean()
+
+
+	/**
+	 * @param percentile Between 0 and 100.
+	 * @return Smallest value that at least percentile percent of the recorded
+	 *         values are not above, to the bucket precision; 0 if empty.
+	 */
+	public long percentile(double percentile) {
+		if (mTotalCount == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mTotalCount));
+		long seen = 0;
+		for (int i = 0; i < mCounts.length; i++) {
+			seen += mCounts[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), mMax);
+			}
+		}
+		return mMax;
+	} // end of percentile()
+
+
+	/**
+	 * Prints one row per operation type that was recorded: count, mean,
+	 * percentiles and max, in nanoseconds.
+	 *
+	 * @param implementation Name of the implementation the latencies are for.
+	 * @param byOp Histograms from forOperations().
+	 */
+	public static void printReport(String implementation, LatencyHistogram[] byOp, PrintStream out) {
+		out.printf("%-20s %-3s %10s %10s", "implementation", "op", "count", "mean");
+		for (double p : REPORT_PERCENTILES) {
+			out.printf(" %10s", "p" + (p == Math.rint(p) ? Integer.toString((int) p) : Double.toString(p)));
+		}
+		out.printf(" %10s  (ns)%n", "max");
+
+		for (int op = 0; op < byOp.length; op++) {
+			LatencyHistogram histogram = byOp[op];
+			if (histogram.count() == 0) {
+				continue;
+			}
+			out.printf("%-20s %-3s %10d %10.1f", implementation, OP_NAMES[op], histogram.count(), histogram.mean());
+			for (double p : REPORT_PERCENTILES) {
+				out.printf(" %10d", histogram.percentile(p));
+			}
+			out.printf(" %10d%n", histogram.max());
+		}
+	} // end of printReport()
+
+
+	private static int index(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1;
+		int sub = (int) (value >>> shift);
+		return LINEAR + (shift - 1) * HALF + (sub - HALF);
+	} // end of index()
+
+
+	/**
+	 * @return Largest value counted in bucket index.
+	 */
+	private static long highestValue(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int shift = (index - LINEAR) / HALF + 1;
+		long sub = (index - LINEAR) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	} // end of highestValue()
+
+} // end of class LatencyHistogram
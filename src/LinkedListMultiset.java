@@ -10,11 +10,10 @@
  * 
  * Author : LosoLai(s3579161)
  */
-import java.io.PrintStream;
 import java.util.*;
 
 
-public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
+public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T> implements Instrumentable
 {
 	/** Reference to head of list. */
     protected Node<T> mHead;
@@ -22,6 +21,8 @@ public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
     protected Node<T> mTail;
     /** Length of list. */
     protected int mLength;
+    /** Cost counters, null unless instrumented. */
+    protected CostCounters mCounters;
     
 	public LinkedListMultiset() {
 		// Implement by LosoLai
@@ -36,7 +37,7 @@ public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
      * @param newValue Value to add to list.
      */
 	public void add(T item) {
-        Node<T> newNode = new Node<T>(item);
+        Node<T> newNode = createNode(item);
         
         // If head is empty, then list is empty and head and tail references need to be initialised.
         if (mHead == null) {
@@ -47,14 +48,14 @@ public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
         else {
         	// scan the list to check is there having duplicate item
         	int found = 0;
-    		Node<T> currNode = mHead;
+    		Node<T> currNode = visit(mHead);
     		while (currNode != null) {
-            	if (currNode.getValue().compareTo(item) == 0) {
+            	if (compare(currNode.getValue(), item) == 0) {
             		currNode.increaseFound();
             		found = currNode.getFound();
             		break;
             	}
-                currNode = currNode.getNext();
+                currNode = next(currNode);
             }
             
         	if(found < 1)
@@ -80,13 +81,13 @@ public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
      */
 	public int search(T item) {
 		int found = 0;
-		Node<T> currNode = mHead;
+		Node<T> currNode = visit(mHead);
         while (currNode != null) {
-        	if (currNode.getValue().compareTo(item) == 0) {
+        	if (compare(currNode.getValue(), item) == 0) {
         		found = currNode.getFound();
         		return found;
         	}
-            currNode = currNode.getNext();
+            currNode = next(currNode);
         }
 		
 		// return the found variable
@@ -101,10 +102,10 @@ public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
 	public void removeOne(T item) {
 		if(mHead != null)
 		{
-			Node<T> currNode = mHead;
+			Node<T> currNode = visit(mHead);
 
 			// check if value is head node
-	        if (currNode.getValue().compareTo(item) == 0) {
+	        if (compare(currNode.getValue(), item) == 0) {
 	            // check if length of 1
 	            if (mLength == 1) {
 	                mHead = mTail= null;
@@ -124,10 +125,10 @@ public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
 	        }
 	        // search for value in rest of list
 	        else {
-	            currNode = currNode.getNext();
+	            currNode = next(currNode);
 
 	            while (currNode != null) {
-	                if (currNode.getValue().compareTo(item) == 0) {
+	                if (compare(currNode.getValue(), item) == 0) {
 	                	// check the number 
 	                	if(currNode.getFound() <= 0)
 	                		break;
@@ -151,7 +152,7 @@ public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
 	                    break;
 	                }
 	                else
-	                	currNode = currNode.getNext();
+	                	currNode = next(currNode);
 	            }	
 	        }
 		}
@@ -159,10 +160,10 @@ public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
 	
 	
 	public void removeAll(T item) {
-		Node<T> currNode = mHead;
+		Node<T> currNode = visit(mHead);
 
 		// check if value is head node
-        if (currNode.getValue().compareTo(item) == 0) {
+        if (compare(currNode.getValue(), item) == 0) {
             // check if length of 1
             if (mLength == 1) {
                 mHead = mTail= null;
@@ -178,10 +179,10 @@ public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
         }
         // search for value in rest of list
         else {
-            currNode = currNode.getNext();
+            currNode = next(currNode);
 
             while (currNode != null) {
-                if (currNode.getValue().compareTo(item) == 0) {
+                if (compare(currNode.getValue(), item) == 0) {
                 	int number = currNode.getFound();
                 	mLength -= number;
                 	Node prevNode = currNode.getPrev();
@@ -196,18 +197,182 @@ public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
                     currNode = null;
                 }
                 else
-                	currNode = currNode.getNext();
+                	currNode = next(currNode);
             }	
         }
 	} // end of removeAll()
 	
 	/**
-     * Print the list in head to tail.
+     * Counts the batch in a hash map, walks the list once to bump the elements
+     * already present, then appends the new ones in order of first appearance
+     * (the order repeated add() calls would give).
+     * 
+     * @param items Values to add to list.
+     */
+	public void addAll(Collection<? extends T> items) {
+		LinkedHashMap<T, Integer> batch = new LinkedHashMap<T, Integer>();
+		for (T item : items) {
+			batch.merge(item, 1, Integer::sum);
+		}
+		
+		Node<T> currNode = visit(mHead);
+		while (currNode != null && !batch.isEmpty()) {
+			Integer number = batch.remove(currNode.getValue());
+			if (number != null) {
+				currNode.increaseFound(number);
+			}
+			currNode = next(currNode);
+		}
+		
+		for (Map.Entry<T, Integer> entry : batch.entrySet()) {
+			Node<T> newNode = createNode(entry.getKey());
+			newNode.increaseFound(entry.getValue() - 1);
+			if (mHead == null) {
+				mHead = newNode;
+				mTail = newNode;
+			}
+			else {
+				mTail.setNext(newNode);
+				newNode.setPrev(mTail);
+				mTail = newNode;
+			}
+		}
+		
+		mLength += items.size();
+	} // end of addAll()
+	
+	/**
+     * Answers the whole batch with one walk of the list.
+     * 
+     * @param items Values to search for.
+     * @return found number of items[i] at index i.
+     */
+	public int[] searchAll(T[] items) {
+		HashMap<T, Integer> wanted = new HashMap<T, Integer>();
+		for (T item : items) {
+			wanted.put(item, 0);
+		}
+		
+		int remaining = wanted.size();
+		Node<T> currNode = visit(mHead);
+		while (currNode != null && remaining > 0) {
+			if (wanted.containsKey(currNode.getValue())) {
+				wanted.put(currNode.getValue(), currNode.getFound());
+				remaining--;
+			}
+			currNode = next(currNode);
+		}
+		
+		int[] counts = new int[items.length];
+		for (int i = 0; i < items.length; i++) {
+			counts[i] = wanted.get(items[i]);
+		}
+		return counts;
+	} // end of searchAll()
+	
+	/**
+     * Unlinks every node whose value is in the batch, in one walk of the list.
+     * 
+     * @param items Values to remove.
+     */
+	public void removeAll(Collection<? extends T> items) {
+		HashSet<T> batch = new HashSet<T>(items);
+		Node<T> currNode = visit(mHead);
+		while (currNode != null && !batch.isEmpty()) {
+			Node<T> nextNode = currNode.getNext();
+			if (batch.remove(currNode.getValue())) {
+				unlink(currNode);
+			}
+			currNode = visit(nextNode);
+		}
+	} // end of removeAll()
+	
+	/**
+     * Detaches currNode from the list and takes its instances off the length.
      */
-	public void print(PrintStream out) {
-		out.println(toString());
-	} // end of print()
+	private void unlink(Node<T> currNode) {
+		mLength -= currNode.getFound();
+		if (currNode.getPrev() == null) {
+			mHead = currNode.getNext();
+		}
+		else {
+			currNode.getPrev().setNext(currNode.getNext());
+		}
+		
+		if (currNode.getNext() == null) {
+			mTail = currNode.getPrev();
+		}
+		else {
+			currNode.getNext().setPrev(currNode.getPrev());
+		}
+	} // end of unlink()
 	
+	/**
+     * Walks the list from head to tail.
+     */
+	public EntryIterator<T> entryIterator() {
+		return new EntryIterator<T>() {
+			private Node<T> nextNode = mHead;
+			private int found = 0;
+			
+			public boolean hasNext() {
+				return nextNode != null;
+			}
+			
+			public T next() {
+				if (nextNode == null) {
+					throw new NoSuchElementException();
+				}
+				T value = nextNode.getValue();
+				found = nextNode.getFound();
+				nextNode = nextNode.getNext();
+				return value;
+			}
+			
+			public int count() {
+				return found;
+			}
+		};
+	} // end of entryIterator()
+
+
+	public void setCostCounters(CostCounters counters) {
+		mCounters = counters;
+	} // end of setCostCounters()
+
+
+	private int compare(T value, T item) {
+		if (mCounters != null) {
+			mCounters.mComparisons++;
+		}
+		return value.compareTo(item);
+	} // end of compare()
+
+
+	/**
+	 * Counts a visit to node, if there is one, before it is examined.
+	 */
+	private Node<T> visit(Node<T> node) {
+		if (node != null && mCounters != null) {
+			mCounters.mNodesVisited++;
+		}
+		return node;
+	} // end of visit()
+
+
+	private Node<T> next(Node<T> node) {
+		return visit(node.getNext());
+	} // end of next()
+
+
+	private Node<T> createNode(T value) {
+		if (mCounters != null) {
+			mCounters.mAllocations++;
+		}
+		return new Node<T>(value);
+	} // end of createNode()
+
+
 	/**
      * @return String representation of the list.
      */
@@ -285,6 +450,10 @@ public class LinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
         public void decreaseFound() {
         	mNumber--;
         }
+        
+        public void increaseFound(int number) {
+        	mNumber += number;
+        }
     } // end of inner class Node
 	
 } // end of class LinkedListMultiset
\ No newline at end of file
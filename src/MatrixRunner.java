@@ -0,0 +1,334 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs the MultiTester benchmark matrix (start file x implementation x test
+ * file) with independent cells spread across cores.
+ *
+ * Every cell loads its start and test files once as Workloads, and every
+ * trial replays the start workload into a freshly built multiset, outside
+ * the timed region, before timing the test workload.  Cells therefore share
+ * nothing but the read-only workloads and give the same inputs whatever
+ * order they run in.
+ *
+ * The CSV also has the comparisons, node visits, allocations and
+ * restructures per operation of each cell, counted once by
+ * InstrumentedMultiset, for implementations that are Instrumentable.
+ *
+ * Cells run on a thread pool by default.  With -fork each cell runs in its
+ * own JVM instead, so JIT and GC state is not shared between cells.  -pin
+ * implies -fork, runs one cell per core and binds each JVM to its core with
+ * taskset when that is available, so concurrent cells do not migrate and
+ * disturb each other.
+ */
+public class MatrixRunner
+{
+	/** Name of class, used in error messages. */
+	protected static final String progName = "MatrixRunner";
+
+	/** Start files used when -start is not given, as in MultiTester.main. */
+	protected static final String[] DEFAULT_START_FILES = { "10000nodeinput1.txt", "reverse10000nodeinput1.txt", "sorted10000nodeinput1.txt" };
+	/** Test files used when none are given, as in MultiTester.main. */
+	protected static final String[] DEFAULT_TEST_FILES = {
+			"Test1_50000_A_1.0_RO_0.0_S_0.0.txt",
+			"Test2_50000_A_0.0_RO_1.0_S_0.0.txt",
+			"Test3_50000_A_0.0_RO_0.0_S_1.0.txt",
+			"Test4_50000_A_0.5_RO_0.0_S_0.5.txt",
+			"Test5_50000_A_0.5_RO_0.5_S_0.0.txt",
+			"Test6_50000_A_0.0_RO_0.5_S_0.5.txt",
+			"Test7_50000_A_0.75_RO_0.25_S_0.0.txt",
+			"Test8_50000_A_0.25_RO_0.75_S_0.0.txt",
+			"Test9_50000_A_0.375_RO_0.375_S_0.25.txt",
+			"Test10_50000_A_0.125_RO_0.125_S_0.75.txt",
+			"Test11_50000_A_0.25_RO_0.25_S_0.5.txt" };
+
+	/** Prefix of the line a forked cell reports its trial times with. */
+	private static final String RESULT_PREFIX = "# Cell ";
+
+	/** Keeps search results alive so the JIT cannot drop the timed searches. */
+	private static volatile int sink;
+
+	protected int mThreads = Runtime.getRuntime().availableProcessors();
+	protected int mTrials = 10;
+	protected boolean mFork = false;
+	protected boolean mPin = false;
+	protected String[] mImplementations = MultisetBenchmark.DEFAULT_IMPLEMENTATIONS;
+	protected String[] mStartFiles = DEFAULT_START_FILES;
+	protected String[] mTestFiles = DEFAULT_TEST_FILES;
+	protected String mOutFilename = "out_matrix.csv";
+
+
+	/**
+	 * Print help/usage message.
+	 */
+	public static void usage(String progName) {
+		System.err.println(progName + ": [options] [test file ...]");
+		System.err.println("  -threads <n>        cells run at once (default: number of cores)");
+		System.err.println("  -trials <n>         timed trials per cell (default 10)");
+		System.err.println("  -fork               run each cell in its own JVM");
+		System.err.println("  -pin                one forked cell per core, bound to it with taskset");
+		System.err.println("  -impl <a,b,...>     implementations (default linkedlist,sortedlinkedlist,bst,hash,baltree)");
+		System.err.println("  -start <a,b,...>    start files (default 10000nodeinput1.txt,reverse10000nodeinput1.txt,sorted10000nodeinput1.txt)");
+		System.err.println("  -o <file>           CSV results file (default out_matrix.csv)");
+		System.err.println("<implementation> = <linkedlist | sortedlinkedlist | mtflist | transposelist | countlist | skiplist | bst| avltree | hash | openhash | offheap | trie | concurrenthash | concurrentskiplist | baltree>");
+		System.err.println("  or cache<capacity>:<implementation> for a search cache of that many elements in front of it");
+		System.err.println("  or shard<n>:<implementation> to partition the elements across n of them, bulk operations in parallel");
+		System.exit(1);
+	} // end of usage
+
+
+	/**
+	 * Runs the trials of one cell in this JVM.
+	 *
+	 * @return Elapsed seconds of each trial.
+	 */
+	public static double[] runCell(String implementationType, Workload start, Workload test, int trials) {
+		double[] times = new double[trials];
+		for (int i = 0; i < trials; i++) {
+			Multiset<String> multiset = MultisetBenchmark.createMultiset(implementationType);
+			sink += start.replay(multiset, null);
+
+			long startTime = System.nanoTime();
+			sink += test.replay(multiset, null);
+			long endTime = System.nanoTime();
+			times[i] = (endTime - startTime) / Math.pow(10, 9);
+		}
+		return times;
+	} // end of runCell()
+
+
+	/**
+	 * Runs every cell and writes the results table.
+	 */
+	public void runAll() throws IOException, InterruptedException {
+		// load each file once; workloads are only read while replaying, so cells can share them
+		final Map<String, Workload> workloads = new HashMap<String, Workload>();
+		for (String fileName : mStartFiles) {
+			workloads.put(fileName, Workload.load(fileName));
+		}
+		for (String fileName : mTestFiles) {
+			workloads.put(fileName, Workload.load(fileName));
+		}
+
+		int threads = mThreads;
+		final BlockingQueue<Integer> freeCores = new LinkedBlockingQueue<Integer>();
+		if (mPin) {
+			threads = Runtime.getRuntime().availableProcessors();
+			for (int core = 0; core < threads; core++) {
+				freeCores.add(core);
+			}
+		}
+		final boolean useTaskset = mPin && tasksetAvailable();
+		if (mPin && !useTaskset) {
+			System.err.println("taskset not found, cells run one per core without binding.");
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<String[]> cells = new ArrayList<String[]>();
+		List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+		for (final String startFile : mStartFiles) {
+			for (final String implementationType : mImplementations) {
+				for (final String testFile : mTestFiles) {
+					cells.add(new String[] { startFile, implementationType, testFile });
+					results.add(pool.submit(new Callable<double[]>() {
+						public double[] call() throws Exception {
+							double[] times;
+							if (!mFork && !mPin) {
+								times = runCell(implementationType, workloads.get(startFile), workloads.get(testFile), mTrials);
+							}
+							else if (mPin) {
+								int core = freeCores.take();
+								try {
+									times = runForkedCell(implementationType, startFile, testFile, useTaskset ? core : -1);
+								}
+								finally {
+									freeCores.add(core);
+								}
+							}
+							else {
+								times = runForkedCell(implementationType, startFile, testFile, -1);
+							}
+							System.out.printf("%s %s %s: %.6f secs%n", startFile, implementationType, testFile, Statistics.mean(times));
+							return times;
+						}
+					}));
+				}
+			}
+		}
+		pool.shutdown();
+
+		PrintWriter out = new PrintWriter(new FileWriter(mOutFilename), true);
+		out.println("start file, implementation, test file, trials, mean secs, error secs, ops/sec, ns/op,"
+				+ " comparisons/op, visits/op, allocations/op, restructures/op");
+		for (int i = 0; i < cells.size(); i++) {
+			String[] cell = cells.get(i);
+			double[] times;
+			try {
+				times = results.get(i).get();
+			} catch (ExecutionException e) {
+				System.err.println(cell[0] + " " + cell[1] + " " + cell[2] + ": " + e.getCause());
+				continue;
+			}
+			double mean = Statistics.mean(times);
+			int ops = workloads.get(cell[2]).size();
+			out.printf("%s, %s, %s, %d, %.9f, %.9f, %.0f, %.1f, %s%n", cell[0], cell[1], cell[2], times.length, mean,
+					Statistics.confidenceHalfWidth(times, Statistics.DEFAULT_CONFIDENCE), ops / mean, mean * 1e9 / ops,
+					costColumns(cell[1], workloads.get(cell[0]), workloads.get(cell[2])));
+		}
+		out.close();
+		System.out.println("Results written to " + mOutFilename);
+	} // end of runAll()
+
+
+	/**
+	 * @return Comparisons, visits, allocations and restructures per operation
+	 *         of one counted replay, as CSV columns; empty columns if the
+	 *         implementation does not count its work.
+	 */
+	private static String costColumns(String implementationType, Workload start, Workload test) {
+		InstrumentedMultiset<String> multiset = InstrumentedMultiset.measure(implementationType, start, test);
+		if (!multiset.isInstrumented()) {
+			return ", , , ";
+		}
+		CostCounters total = multiset.total();
+		return String.format("%.3f, %.3f, %.3f, %.5f", total.perOperation(total.comparisons()),
+				total.perOperation(total.nodesVisited()), total.perOperation(total.allocations()),
+				total.perOperation(total.restructures()));
+	} // end of costColumns()
+
+
+	/**
+	 * Runs one cell in a new JVM with this JVM's class path and options.
+	 *
+	 * @param core Core to bind the JVM to with taskset, -1 for no binding.
+	 * @return Elapsed seconds of each trial.
+	 */
+	private double[] runForkedCell(String implementationType, String startFile, String testFile, int core)
+			throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		if (core >= 0) {
+			command.addAll(Arrays.asList("taskset", "-c", Integer.toString(core)));
+		}
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(progName);
+		command.addAll(Arrays.asList("-cell", implementationType, startFile, testFile, "-trials", Integer.toString(mTrials)));
+
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		double[] times = null;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(RESULT_PREFIX)) {
+					String[] tokens = line.substring(RESULT_PREFIX.length()).split(" ");
+					times = new double[tokens.length];
+					for (int i = 0; i < tokens.length; i++) {
+						times[i] = Double.parseDouble(tokens[i]);
+					}
+				}
+				else {
+					System.err.println(line);
+				}
+			}
+		}
+
+		int exitCode = process.waitFor();
+		if (exitCode != 0 || times == null) {
+			throw new IOException("Forked cell exited with code " + exitCode + ".");
+		}
+		return times;
+	} // end of runForkedCell()
+
+
+	private static boolean tasksetAvailable() {
+		try {
+			Process process = new ProcessBuilder("taskset", "-p", "1").redirectErrorStream(true).start();
+			process.getInputStream().close();
+			return process.waitFor() == 0;
+		} catch (IOException | InterruptedException e) {
+			return false;
+		}
+	} // end of tasksetAvailable()
+
+
+	/**
+	 * Main method.
+	 */
+	public static void main(String[] args) {
+		MatrixRunner runner = new MatrixRunner();
+		List<String> testFiles = new ArrayList<String>();
+		// set by forks: run the one cell given and report its times to the parent
+		String[] cell = null;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+					case "-threads":
+						runner.mThreads = Integer.parseInt(args[++i]);
+						break;
+					case "-trials":
+						runner.mTrials = Integer.parseInt(args[++i]);
+						break;
+					case "-fork":
+						runner.mFork = true;
+						break;
+					case "-pin":
+						runner.mPin = true;
+						break;
+					case "-impl":
+						runner.mImplementations = args[++i].split(",");
+						break;
+					case "-start":
+						runner.mStartFiles = args[++i].split(",");
+						break;
+					case "-o":
+						runner.mOutFilename = args[++i];
+						break;
+					case "-cell":
+						cell = new String[] { args[++i], args[++i], args[++i] };
+						break;
+					default:
+						testFiles.add(args[i]);
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			System.err.println("Invalid option.");
+			usage(progName);
+		}
+
+		if (runner.mThreads < 1 || runner.mTrials < 1) {
+			usage(progName);
+		}
+		for (String implementationType : runner.mImplementations) {
+			if (MultisetBenchmark.createMultiset(implementationType) == null) {
+				System.err.println("Unknown implmementation type: " + implementationType);
+				usage(progName);
+			}
+		}
+		if (!testFiles.isEmpty()) {
+			runner.mTestFiles = testFiles.toArray(new String[testFiles.size()]);
+		}
+
+		try {
+			if (cell != null) {
+				double[] times = runCell(cell[0], Workload.load(cell[1]), Workload.load(cell[2]), runner.mTrials);
+				StringBuilder line = new StringBuilder(RESULT_PREFIX);
+				for (int i = 0; i < times.length; i++) {
+					line.append(i == 0 ? "" : " ").append(times[i]);
+				}
+				System.out.println(line);
+			}
+			else {
+				runner.runAll();
+			}
+		} catch (IOException | InterruptedException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	} // end of main()
+
+} // end of class MatrixRunner
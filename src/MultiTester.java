@@ -17,62 +17,67 @@ public class MultiTester {
 	/** Standard outstream. */
 	protected static final PrintStream outStream = System.out;
 
+	/** Keeps search results alive so the JIT cannot drop the timed searches. */
+	private static volatile int sink;
+
 	/**
 	 * Print help/usage message.
 	 */
 	public static void usage(String progName) {
 		System.err.println(progName + ": <implementation> [inputfilename] [fileName to output search results to]");
-		System.err.println("<implementation> = <linkedlist | sortedlinkedlist | bst| hash | baltree>");
+		System.err.println("<implementation> = <linkedlist | sortedlinkedlist | mtflist | transposelist | countlist | skiplist | bst| avltree | hash | openhash | offheap | trie | concurrenthash | concurrentskiplist | baltree>");
 		System.exit(1);
 	} // end of usage
 
 	/**
-	 * Process the operation commands coming from inReader, and updates the
-	 * multiset according to the operations.
+	 * Process the operation commands coming from parser, and updates the
+	 * multiset according to the operations. Runs of consecutive A, S or RA
+	 * commands are executed through the multiset's bulk operations.
 	 * 
-	 * @param inReader
-	 *            Input reader where the operation commands are coming from.
-	 * @param searchOutWriter
-	 *            Where to output the results of search.
+	 * @param parser
+	 *            Parser over the input where the operation commands are coming from.
 	 * @param multiset
 	 *            The multiset which the operations are executed on.
 	 * 
 	 * @throws IOException
 	 *             If there is an exception to do with I/O.
 	 */
-	public static void processOperations(Scanner inReader, Multiset<String> multiset) throws IOException {
-		int lineNum = 1;
+	public static void processOperations(CommandParser parser, Multiset<String> multiset) throws IOException {
+		int command;
 		boolean bQuit = false;
+		OperationBatch batch = new OperationBatch();
 
 		// continue reading in commands until we either receive the quit signal
 		// or there are no more input commands
-		while (!bQuit && inReader.hasNextLine()) {
-			String[] tokens = inReader.nextLine().split(" ");
+		while (!bQuit && (command = parser.next()) != CommandParser.EOF) {
+			int lineNum = parser.lineNumber();
+			int tokenNum = parser.tokenCount();
 
 			// check if there is at least an operation command
-			if (tokens.length < 1) {
+			if (tokenNum < 1) {
 				System.err.println(lineNum + ": not enough tokens.");
-				lineNum++;
 				continue;
 			}
 
-			String command = tokens[0];
+			// anything without a bulk counterpart runs after the pending batch
+			if (!OperationBatch.isBatchable(command)) {
+				batch.flush(multiset, null);
+			}
+
 			// determine which operation to execute
-			switch (command.toUpperCase()) {
+			switch (command) {
 			// add
-			case "A":
-				if (tokens.length == 2) {
-					multiset.add(tokens[1]);
+			case CommandParser.ADD:
+				if (tokenNum == 2) {
+					batch.queue(command, parser.key(), multiset, null);
 				} else {
 					System.err.println(lineNum + ": not enough tokens.");
 				}
 				break;
 			// search
-			case "S":
-				if (tokens.length == 2) {
-					@SuppressWarnings("unused")
-					int foundNumber = multiset.search(tokens[1]);
-					// searchOutWriter.println(tokens[1] + " " + foundNumber);
+			case CommandParser.SEARCH:
+				if (tokenNum == 2) {
+					batch.queue(command, parser.key(), multiset, null);
 				} else {
 					// we print -1 to indicate error for automated testing
 					// searchOutWriter.println(-1);
@@ -80,39 +85,61 @@ public class MultiTester {
 				}
 				break;
 			// remove one instance
-			case "RO":
-				if (tokens.length == 2) {
-					multiset.removeOne(tokens[1]);
+			case CommandParser.REMOVE_ONE:
+				if (tokenNum == 2) {
+					multiset.removeOne(parser.key());
 				} else {
 					System.err.println(lineNum + ": not enough tokens.");
 				}
 				break;
 			// remove all instances
-			case "RA":
-				if (tokens.length == 2) {
-					multiset.removeAll(tokens[1]);
+			case CommandParser.REMOVE_ALL:
+				if (tokenNum == 2) {
+					batch.queue(command, parser.key(), multiset, null);
 				} else {
 					System.err.println(lineNum + ": not enough tokens.");
 				}
 				break;
 			// print
-			case "P":
+			case CommandParser.PRINT:
 				multiset.print(outStream);
 				// multiset.print(searchOutWriter);
 				break;
 			// quit
-			case "Q":
+			case CommandParser.QUIT:
 				bQuit = true;
 				break;
 			default:
 				System.err.println(lineNum + ": Unknown command.");
 			}
-
-			lineNum++;
 		}
+		batch.flush(multiset, null);
 
 	} // end of processOperations()
 
+	/**
+	 * Executes the operations of a command file on multiset.  Binary workload
+	 * files written by DataGenerator or WorkloadConverter are replayed
+	 * directly, anything else is parsed as text commands.
+	 * 
+	 * @param inFilename
+	 *            Text command file or workload file.
+	 * @param multiset
+	 *            The multiset which the operations are executed on.
+	 * 
+	 * @throws IOException
+	 *             If there is an exception to do with I/O.
+	 */
+	public static void processFile(String inFilename, Multiset<String> multiset) throws IOException {
+		if (Workload.isWorkloadFile(inFilename)) {
+			Workload.read(inFilename).replay(multiset, null);
+		} else {
+			CommandParser parser = CommandParser.open(inFilename);
+			processOperations(parser, multiset);
+			parser.close();
+		}
+	} // end of processFile()
+
 	/**
 	 * Main class - where it all starts
 	 * 
@@ -195,16 +222,18 @@ public class MultiTester {
 		ArrayList<Multiset<String>> sets = new ArrayList<>();
 		sets.add(new LinkedListMultiset<String>());
 		sets.add(new HashMultiset<String>());
+		sets.add(new OpenHashMultiset<String>());
+		sets.add(new TrieMultiset());
 		sets.add(new BstMultiset<String>());
+		sets.add(new AvlTreeMultiset<String>());
 		sets.add(new BalTreeMultiset<String>());
 		sets.add(new SortedLinkedListMultiset<String>());
+		sets.add(new SkipListMultiset<String>());
 
 		for (Iterator<Multiset<String>> iterator = sets.iterator(); iterator.hasNext();) {
 			Multiset<String> multiset = (Multiset<String>) iterator.next();
 			try {
-				Scanner inReader = new Scanner(new File(inFilename));
-				processOperations(inReader, multiset);
-				inReader.close();
+				processFile(inFilename, multiset);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -228,33 +257,45 @@ public class MultiTester {
 		return tableColumn;
 	}
 
+	/**
+	 * Parses inFilename once, then times numTrials replays of it.
+	 */
 	public static double runManyTrials(String inFilename, Multiset<String> multiset) {
+		Workload workload;
+		try {
+			workload = Workload.load(inFilename);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		}
+
 		double sum = 0;
 		for (int i = 0; i < numTrials; i++) {
-			sum += runOneTrial(inFilename, multiset);
+			sum += runOneTrial(workload, multiset);
 		}
 		return sum / numTrials;
 	}
 
 	public static double runOneTrial(String inFilename, Multiset<String> multiset) {
-		long startTime = 0;
-		long endTime = 0;
-
 		try {
-			Scanner inReader = new Scanner(new File(inFilename));
-
-			// process the operations
-			startTime = System.nanoTime();
-			processOperations(inReader, multiset);
-			endTime = System.nanoTime();
-			inReader.close();
-
+			return runOneTrial(Workload.load(inFilename), multiset);
 		} catch (IOException e) {
 			e.printStackTrace();
+			return 0;
 		}
+	}
+
+	/**
+	 * Times one replay of an in-memory workload; only the multiset calls are
+	 * inside the timed region.
+	 */
+	public static double runOneTrial(Workload workload, Multiset<String> multiset) {
+		long startTime = System.nanoTime();
+		sink += workload.replay(multiset, null);
+		long endTime = System.nanoTime();
 
 		double timeElapsed = (endTime - startTime) / Math.pow(10, 9);
-		System.out.println("Time elapsed (secs): " + timeElapsed);
+		System.out.println("Time elapsed (secs): " + timeElapsed + " (" + workload.rate(endTime - startTime) + ")");
 		return timeElapsed;
 	}
 
@@ -289,12 +330,42 @@ public class MultiTester {
 		case "sortedlinkedlist":
 			multiset = new SortedLinkedListMultiset<String>();
 			break;
+		case "mtflist":
+			multiset = new SelfOrganizingListMultiset<String>(SelfOrganizingListMultiset.MOVE_TO_FRONT);
+			break;
+		case "transposelist":
+			multiset = new SelfOrganizingListMultiset<String>(SelfOrganizingListMultiset.TRANSPOSE);
+			break;
+		case "countlist":
+			multiset = new SelfOrganizingListMultiset<String>(SelfOrganizingListMultiset.COUNT);
+			break;
+		case "skiplist":
+			multiset = new SkipListMultiset<String>();
+			break;
 		case "bst":
 			multiset = new BstMultiset<String>();
 			break;
+		case "avltree":
+			multiset = new AvlTreeMultiset<String>();
+			break;
 		case "hash":
 			multiset = new HashMultiset<String>();
 			break;
+		case "openhash":
+			multiset = new OpenHashMultiset<String>();
+			break;
+		case "offheap":
+			multiset = new OffHeapStringMultiset();
+			break;
+		case "trie":
+			multiset = new TrieMultiset();
+			break;
+		case "concurrenthash":
+			multiset = new ConcurrentHashMultiset<String>();
+			break;
+		case "concurrentskiplist":
+			multiset = new ConcurrentSkipListMultiset<String>();
+			break;
 		case "baltree":
 			multiset = new BalTreeMultiset<String>();
 			break;
@@ -311,7 +382,6 @@ public class MultiTester {
 		try {
 			// BufferedReader inReader = new BufferedReader(new
 			// InputStreamReader(System.in));
-			Scanner inReader = new Scanner(new File(inFilename));
 			// PrintWriter searchOutWriter = new PrintWriter(System.out, true);
 
 			// if (searchOutFilename != null) {
@@ -319,10 +389,11 @@ public class MultiTester {
 			// FileWriter(searchOutFilename), true);
 			// }
 			// process the operations
+			Workload workload = Workload.load(inFilename);
 			startTime = System.nanoTime();
-			processOperations(inReader, multiset);
+			sink += workload.replay(multiset, null);
 			endTime = System.nanoTime();
-			inReader.close();
+			System.out.println(workload.rate(endTime - startTime));
 		} catch (IOException e) {
 			System.err.println(e.getMessage());
 		}
@@ -1,6 +1,8 @@
 
-import java.io.PrintStream;
+import java.io.*;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.function.ObjIntConsumer;
 
 /**
  * Abstract class for a multiset.  Your implmentation should extend this abstract class and implement all the abstract methods.
@@ -48,10 +50,187 @@ public abstract class  Multiset<T>
 	public abstract void removeAll(T item);
 
 	
+	/**
+	 * Add every element of items into multiset, equivalent to calling add() on
+	 * each in iteration order.  Implementations override this with a cheaper
+	 * bulk strategy where their structure allows one.
+	 *
+	 * @param items Elements to add.
+	 */
+	public void addAll(Collection<? extends T> items) {
+		for (T item : items) {
+			add(item);
+		}
+	} // end of addAll()
+
+
+	/**
+	 * Searches for each element of items in the multiset.
+	 *
+	 * @param items Elements to search for.
+	 * @return Number of instances of items[i] at index i, 0 if not in the multiset.
+	 */
+	public int[] searchAll(T[] items) {
+		int[] counts = new int[items.length];
+		for (int i = 0; i < items.length; i++) {
+			counts[i] = search(items[i]);
+		}
+		return counts;
+	} // end of searchAll()
+
+
+	/**
+	 * Remove all instances of every element of items from the multiset.
+	 * Elements that don't exist are skipped.
+	 *
+	 * @param items Elements to remove.
+	 */
+	public void removeAll(Collection<? extends T> items) {
+		for (T item : items) {
+			removeAll(item);
+		}
+	} // end of removeAll()
+
+
+	/**
+	 * Returns a cursor over the distinct elements of the multiset.  Sorted
+	 * implementations return elements in ascending order.  The multiset must
+	 * not be modified while the cursor is in use, unless the implementation
+	 * is documented as thread-safe.
+	 * 
+	 * @return Cursor positioned before the first element.
+	 */
+	public abstract EntryIterator<T> entryIterator();
+
+
+	/**
+	 * @return True if entryIterator() returns elements in ascending order.
+	 */
+	public boolean isSorted() {
+		return false;
+	} // end of isSorted()
+
+
+	/**
+	 * Writes every element and its number of instances to a binary snapshot
+	 * file, see MultisetSnapshot.  Elements are stored in their String form.
+	 *
+	 * @param path File to write, replaced if it exists.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void snapshot(Path path) throws IOException {
+		MultisetSnapshot.write(this, path);
+	} // end of snapshot()
+
+
+	/**
+	 * Adds the contents of a snapshot written by snapshot() to this multiset.
+	 * Elements are read back as Strings, so this is for multisets of String.
+	 *
+	 * @param path Snapshot file to read.
+	 * @throws IOException If the file cannot be read or is not a snapshot.
+	 */
+	@SuppressWarnings("unchecked")
+	public void restore(Path path) throws IOException {
+		MultisetSnapshot snapshot = MultisetSnapshot.read(path);
+		restoreEntries((SortedEntries<T>) (SortedEntries<?>) snapshot.entries(), snapshot.isSorted());
+	} // end of restore()
+
+
+	/**
+	 * Adds count(i) instances of key(i) for every entry, through addAll() so
+	 * the implementation's bulk strategy is used.  Sorted implementations
+	 * override this to build their structure directly from sorted entries in O(n).
+	 *
+	 * @param sorted True if the entries are in ascending order.
+	 */
+	protected void restoreEntries(SortedEntries<T> entries, boolean sorted) {
+		List<T> items = new ArrayList<T>();
+		for (int i = 0; i < entries.size(); i++) {
+			T item = entries.key(i);
+			for (int j = entries.count(i); j > 0; j--) {
+				items.add(item);
+			}
+		}
+		addAll(items);
+	} // end of restoreEntries()
+
+
+	/**
+	 * Calls action once for each distinct element with its number of
+	 * instances, in entryIterator() order, without creating any per-entry objects.
+	 * 
+	 * @param action Receives each element and its count.
+	 */
+	public void forEachEntry(ObjIntConsumer<? super T> action) {
+		EntryIterator<T> it = entryIterator();
+		while (it.hasNext()) {
+			T item = it.next();
+			action.accept(item, it.count());
+		}
+	} // end of forEachEntry()
+
+
 	/**
 	 * Prints out all the elements and the number of instances of each to 'out' PrintStream.
+	 * Lines are streamed through a buffered writer rather than built up as Strings.
 	 * 
 	 * @param out PrintStream to print out to.
 	 */
-	public abstract void print(PrintStream out);
+	public void print(PrintStream out) {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out), 1 << 16);
+		char[] digits = new char[11];
+		try {
+			EntryIterator<T> it = entryIterator();
+			while (it.hasNext()) {
+				writer.write(String.valueOf(it.next()));
+				writer.write(printDelim);
+				writeInt(writer, it.count(), digits);
+				writer.write('\n');
+			}
+			writer.flush();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+	} // end of print()
+
+
+	/**
+	 * Writes the decimal form of a non-negative count without allocating a String.
+	 */
+	private static void writeInt(Writer writer, int value, char[] digits) throws IOException {
+		int pos = digits.length;
+		do {
+			digits[--pos] = (char) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		writer.write(digits, pos, digits.length - pos);
+	} // end of writeInt()
+
+
+	/**
+	 * Allocation-free cursor over the distinct elements of a multiset and their counts.
+	 *
+	 * @param T Type of elements.
+	 */
+	public interface EntryIterator<T>
+	{
+		/**
+		 * @return True if next() has another element to return.
+		 */
+		boolean hasNext();
+
+		/**
+		 * Advances to the next distinct element.
+		 *
+		 * @return The element.
+		 * @throws NoSuchElementException If there are no more elements.
+		 */
+		T next();
+
+		/**
+		 * @return Number of instances of the element last returned by next().
+		 */
+		int count();
+	} // end of interface EntryIterator
 } // end of abstract class Multiset
@@ -0,0 +1,440 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Benchmark harness for the multiset implementations, run the way JMH runs
+ * benchmarks: each measurement happens in forked JVMs, starts with warmup
+ * iterations that are thrown away so JIT compilation stays out of the
+ * numbers, and is reported with a 99.9% confidence interval across all
+ * measured iterations of all forks.
+ *
+ * One benchmark is an (implementation, start file, operation file) triple.
+ * Each invocation builds a fresh multiset from the start file outside the
+ * timed region, then times the replay of the operation file.  Both files are
+ * loaded into memory once per fork, as Workloads, so no file I/O or parsing
+ * is timed either.  An iteration repeats invocations until it has measured
+ * at least the iteration time.
+ *
+ * Reported modes are thrpt (operations of the operation file per second) and
+ * avgt (nanoseconds per operation).  Implementations that are Instrumentable
+ * also get rows with their comparisons, node visits, allocations and
+ * restructures per operation, counted by InstrumentedMultiset.
+ */
+public class MultisetBenchmark
+{
+	/** Name of class, used in error messages. */
+	protected static final String progName = "MultisetBenchmark";
+
+	/** Implementations benchmarked when -impl is not given. */
+	protected static final String[] DEFAULT_IMPLEMENTATIONS = { "linkedlist", "sortedlinkedlist", "bst", "hash", "baltree" };
+	/** Start files used when -start is not given. */
+	protected static final String[] DEFAULT_START_FILES = { "10000nodeinput1.txt", "sorted10000nodeinput1.txt", "reverse10000nodeinput1.txt" };
+
+	/** Prefix of the lines a fork reports its measured iterations with. */
+	private static final String RESULT_PREFIX = "# Result ";
+
+	/** Keeps search results alive so the JIT cannot drop the searches. */
+	private static volatile int sink;
+
+	protected int mForks = 3;
+	protected int mWarmupIterations = 5;
+	protected int mIterations = 10;
+	/** Minimum measured time of one iteration, in milliseconds. */
+	protected long mIterationMillis = 500;
+	protected String[] mImplementations = DEFAULT_IMPLEMENTATIONS;
+	protected String[] mStartFiles = DEFAULT_START_FILES;
+	protected String[] mOpFiles;
+
+
+	/**
+	 * Print help/usage message.
+	 */
+	public static void usage(String progName) {
+		System.err.println(progName + ": [options] <operation file> [more operation files ...]");
+		System.err.println("  -f <forks>          forked JVMs per benchmark, 0 to run in this JVM (default 3)");
+		System.err.println("  -wi <iterations>    warmup iterations per fork (default 5)");
+		System.err.println("  -i <iterations>     measurement iterations per fork (default 10)");
+		System.err.println("  -r <millis>         minimum time of each iteration (default 500)");
+		System.err.println("  -impl <a,b,...>     implementations (default linkedlist,sortedlinkedlist,bst,hash,baltree)");
+		System.err.println("  -start <a,b,...>    start files (default 10000nodeinput1.txt,sorted10000nodeinput1.txt,reverse10000nodeinput1.txt)");
+		System.err.println("<implementation> = <linkedlist | sortedlinkedlist | mtflist | transposelist | countlist | skiplist | bst| avltree | hash | openhash | offheap | trie | concurrenthash | concurrentskiplist | baltree>");
+		System.err.println("  or cache<capacity>:<implementation> for a search cache of that many elements in front of it");
+		System.err.println("  or shard<n>:<implementation> to partition the elements across n of them, bulk operations in parallel");
+		System.exit(1);
+	} // end of usage
+
+
+	/**
+	 * @return New empty multiset of the named implementation, null if the name is unknown.
+	 */
+	public static Multiset<String> createMultiset(String implementationType) {
+		Multiset<String> multiset = null;
+		int colon = implementationType.indexOf(':');
+		if (colon > 0) {
+			return createDecorated(implementationType.substring(0, colon), implementationType.substring(colon + 1));
+		}
+		switch (implementationType) {
+			case "linkedlist":
+				multiset = new LinkedListMultiset<String>();
+				break;
+			case "sortedlinkedlist":
+				multiset = new SortedLinkedListMultiset<String>();
+				break;
+			case "mtflist":
+				multiset = new SelfOrganizingListMultiset<String>(SelfOrganizingListMultiset.MOVE_TO_FRONT);
+				break;
+			case "transposelist":
+				multiset = new SelfOrganizingListMultiset<String>(SelfOrganizingListMultiset.TRANSPOSE);
+				break;
+			case "countlist":
+				multiset = new SelfOrganizingListMultiset<String>(SelfOrganizingListMultiset.COUNT);
+				break;
+			case "skiplist":
+				multiset = new SkipListMultiset<String>();
+				break;
+			case "bst":
+				multiset = new BstMultiset<String>();
+				break;
+			case "avltree":
+				multiset = new AvlTreeMultiset<String>();
+				break;
+			case "hash":
+				multiset = new HashMultiset<String>();
+				break;
+			case "openhash":
+				multiset = new OpenHashMultiset<String>();
+				break;
+			case "offheap":
+				multiset = new OffHeapStringMultiset();
+				break;
+			case "trie":
+				multiset = new TrieMultiset();
+				break;
+			case "concurrenthash":
+				multiset = new ConcurrentHashMultiset<String>();
+				break;
+			case "concurrentskiplist":
+				multiset = new ConcurrentSkipListMultiset<String>();
+				break;
+			case "baltree":
+				multiset = new BalTreeMultiset<String>();
+				break;
+			default:
+				break;
+		}
+		return multiset;
+	} // end of createMultiset()
+
+
+	/**
+	 * cache<capacity> puts a search cache of that many elements in front of
+	 * the implementation, shard<n> partitions the elements across n of them.
+	 *
+	 * @param decorator Decorator name followed by its number.
+	 * @return New empty decorated multiset, null if either name is unknown.
+	 */
+	private static Multiset<String> createDecorated(String decorator, final String implementationType) {
+		int digits = 0;
+		while (digits < decorator.length() && !Character.isDigit(decorator.charAt(digits))) {
+			digits++;
+		}
+		int number;
+		try {
+			number = Integer.parseInt(decorator.substring(digits));
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+		if (number < 1 || createMultiset(implementationType) == null) {
+			return null;
+		}
+
+		switch (decorator.substring(0, digits)) {
+			case "cache":
+				return new CachingMultiset<String>(createMultiset(implementationType), number);
+			case "shard":
+				return new ShardedMultiset<String>(number, new Supplier<Multiset<String>>() {
+					public Multiset<String> get() {
+						return createMultiset(implementationType);
+					}
+				});
+			default:
+				return null;
+		}
+	} // end of createDecorated()
+
+
+	/**
+	 * Runs the warmup and measurement iterations of one benchmark in this JVM.
+	 *
+	 * @return Nanoseconds per operation of each measured iteration.
+	 */
+	public double[] runIterations(String implementationType, Workload start, Workload ops, PrintStream log) {
+		double[] nsPerOp = new double[mIterations];
+		for (int i = -mWarmupIterations; i < mIterations; i++) {
+			long measured = 0;
+			long invocations = 0;
+			while (invocations == 0 || measured < mIterationMillis * 1000000L) {
+				Multiset<String> multiset = createMultiset(implementationType);
+				sink += start.replay(multiset, null);
+
+				long startTime = System.nanoTime();
+				sink += ops.replay(multiset, null);
+				measured += System.nanoTime() - startTime;
+				invocations++;
+			}
+
+			double score = (double) measured / (invocations * ops.size());
+			String label = i < 0 ? "# Warmup Iteration " + (i + mWarmupIterations + 1) : "Iteration " + (i + 1);
+			log.printf("%-22s %12.3f ns/op  %14.3f ops/s%n", label + ":", score, 1e9 / score);
+			if (i >= 0) {
+				nsPerOp[i] = score;
+			}
+		}
+		return nsPerOp;
+	} // end of runIterations()
+
+
+	/**
+	 * Runs one benchmark in mForks forked JVMs, or in this JVM if mForks is 0.
+	 *
+	 * @return Nanoseconds per operation of every measured iteration of every fork.
+	 */
+	public double[] runBenchmark(String implementationType, String startFile, String opFile) throws IOException, InterruptedException {
+		if (mForks == 0) {
+			return runIterations(implementationType, Workload.load(startFile), Workload.load(opFile), System.out);
+		}
+
+		double[] all = new double[mForks * mIterations];
+		int count = 0;
+		for (int fork = 1; fork <= mForks; fork++) {
+			System.out.println("# Fork: " + fork + " of " + mForks);
+			for (double score : runFork(implementationType, startFile, opFile)) {
+				all[count++] = score;
+			}
+		}
+		return Arrays.copyOf(all, count);
+	} // end of runBenchmark()
+
+
+	/**
+	 * Runs the iterations of one benchmark in a new JVM with this JVM's
+	 * class path and options, echoing its output.
+	 */
+	private double[] runFork(String implementationType, String startFile, String opFile) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(progName);
+		command.addAll(Arrays.asList("-f", "0", "-wi", Integer.toString(mWarmupIterations), "-i", Integer.toString(mIterations),
+				"-r", Long.toString(mIterationMillis), "-impl", implementationType, "-start", startFile, "-results", opFile));
+
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		double[] scores = new double[mIterations];
+		int count = 0;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(RESULT_PREFIX)) {
+					if (count < scores.length) {
+						scores[count++] = Double.parseDouble(line.substring(RESULT_PREFIX.length()));
+					}
+				}
+				else {
+					System.out.println(line);
+				}
+			}
+		}
+
+		int exitCode = process.waitFor();
+		if (exitCode != 0 || count != mIterations) {
+			throw new IOException("Fork exited with code " + exitCode + " after " + count + " of " + mIterations + " iterations.");
+		}
+		return scores;
+	} // end of runFork()
+
+
+	/**
+	 * Runs every benchmark and prints the summary table.
+	 */
+	public void runAll() throws IOException, InterruptedException {
+		List<String[]> rows = new ArrayList<String[]>();
+		for (String opFile : mOpFiles) {
+			for (String startFile : mStartFiles) {
+				for (String implementationType : mImplementations) {
+					System.out.println();
+					System.out.println("# Benchmark: " + implementationType + " start=" + startFile + " ops=" + opFile);
+					System.out.println("# Warmup: " + mWarmupIterations + " iterations, Measurement: " + mIterations
+							+ " iterations, " + mIterationMillis + " ms each");
+
+					double[] nsPerOp = runBenchmark(implementationType, startFile, opFile);
+					double[] opsPerSec = new double[nsPerOp.length];
+					for (int i = 0; i < nsPerOp.length; i++) {
+						opsPerSec[i] = 1e9 / nsPerOp[i];
+					}
+					rows.add(summaryRow(implementationType, startFile, opFile, "thrpt", opsPerSec, "ops/s"));
+					rows.add(summaryRow(implementationType, startFile, opFile, "avgt", nsPerOp, "ns/op"));
+					rows.addAll(costRows(implementationType, startFile, opFile));
+					rows.addAll(cacheRows(implementationType, startFile, opFile));
+				}
+			}
+		}
+
+		System.out.println();
+		printTable(rows, System.out);
+	} // end of runAll()
+
+
+	private static String[] summaryRow(String implementationType, String startFile, String opFile, String mode,
+			double[] scores, String unit) {
+		double error = Statistics.confidenceHalfWidth(scores, Statistics.DEFAULT_CONFIDENCE);
+		return new String[] { implementationType, startFile, opFile, mode, Integer.toString(scores.length),
+				String.format("%.3f", Statistics.mean(scores)), "+-", Double.isNaN(error) ? "" : String.format("%.3f", error), unit };
+	} // end of summaryRow()
+
+
+	/**
+	 * Counts the work of one untimed replay in this JVM, as extra rows under
+	 * the timed ones in the style of JMH profiler rows.  The counts do not
+	 * depend on timing, so one replay is enough.
+	 */
+	private static List<String[]> costRows(String implementationType, String startFile, String opFile) throws IOException {
+		List<String[]> rows = new ArrayList<String[]>();
+		InstrumentedMultiset<String> multiset = InstrumentedMultiset.measure(implementationType, Workload.load(startFile), Workload.load(opFile));
+		if (!multiset.isInstrumented()) {
+			return rows;
+		}
+		CostCounters total = multiset.total();
+		long[] tallies = { total.comparisons(), total.nodesVisited(), total.allocations(), total.restructures() };
+		String[] names = { "comparisons", "visits", "allocations", "restructures" };
+		for (int i = 0; i < names.length; i++) {
+			rows.add(new String[] { implementationType + ":" + names[i], startFile, opFile, "avgt", "1",
+					String.format("%.3f", total.perOperation(tallies[i])), "", "", "#/op" });
+		}
+		return rows;
+	} // end of costRows()
+
+
+	/**
+	 * Hit rate and evictions per operation of the search cache over one
+	 * untimed replay of the operations, if the implementation has one, so the
+	 * throughput of each cache size can be read against its hit rate.
+	 */
+	private static List<String[]> cacheRows(String implementationType, String startFile, String opFile) throws IOException {
+		List<String[]> rows = new ArrayList<String[]>();
+		Multiset<String> multiset = createMultiset(implementationType);
+		if (!(multiset instanceof CachingMultiset)) {
+			return rows;
+		}
+		CachingMultiset<String> cache = (CachingMultiset<String>) multiset;
+		Workload ops = Workload.load(opFile);
+		sink += Workload.load(startFile).replay(cache, null);
+		cache.resetStats();
+		sink += ops.replay(cache, null);
+		rows.add(new String[] { implementationType + ":hitRate", startFile, opFile, "avgt", "1",
+				String.format("%.3f", 100 * cache.hitRate()), "", "", "%" });
+		rows.add(new String[] { implementationType + ":evictions", startFile, opFile, "avgt", "1",
+				String.format("%.3f", ops.size() == 0 ? 0.0 : (double) cache.evictions() / ops.size()), "", "", "#/op" });
+		return rows;
+	} // end of cacheRows()
+
+
+	/**
+	 * Prints rows as left aligned text columns under a header.
+	 */
+	protected static void printTable(List<String[]> rows, PrintStream out) {
+		String[] header = { "Benchmark", "Start", "Ops", "Mode", "Cnt", "Score", "", "Error", "Units" };
+		int[] widths = new int[header.length];
+		List<String[]> all = new ArrayList<String[]>();
+		all.add(header);
+		all.addAll(rows);
+		for (String[] row : all) {
+			for (int i = 0; i < row.length; i++) {
+				widths[i] = Math.max(widths[i], row[i].length());
+			}
+		}
+		for (String[] row : all) {
+			StringBuilder line = new StringBuilder();
+			for (int i = 0; i < row.length; i++) {
+				line.append(String.format("%-" + (widths[i] + 2) + "s", row[i]));
+			}
+			out.println(line.toString().trim());
+		}
+	} // end of printTable()
+
+
+	/**
+	 * Main method.
+	 */
+	public static void main(String[] args) {
+		MultisetBenchmark benchmark = new MultisetBenchmark();
+		List<String> opFiles = new ArrayList<String>();
+		// set by forks: print machine readable results for the parent
+		boolean reportResults = false;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+					case "-f":
+						benchmark.mForks = Integer.parseInt(args[++i]);
+						break;
+					case "-wi":
+						benchmark.mWarmupIterations = Integer.parseInt(args[++i]);
+						break;
+					case "-i":
+						benchmark.mIterations = Integer.parseInt(args[++i]);
+						break;
+					case "-r":
+						benchmark.mIterationMillis = Long.parseLong(args[++i]);
+						break;
+					case "-impl":
+						benchmark.mImplementations = args[++i].split(",");
+						break;
+					case "-start":
+						benchmark.mStartFiles = args[++i].split(",");
+						break;
+					case "-results":
+						reportResults = true;
+						break;
+					default:
+						opFiles.add(args[i]);
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			System.err.println("Invalid option.");
+			usage(progName);
+		}
+
+		if (opFiles.isEmpty() || benchmark.mIterations < 1 || benchmark.mWarmupIterations < 0 || benchmark.mForks < 0) {
+			usage(progName);
+		}
+		for (String implementationType : benchmark.mImplementations) {
+			if (createMultiset(implementationType) == null) {
+				System.err.println("Unknown implmementation type: " + implementationType);
+				usage(progName);
+			}
+		}
+		benchmark.mOpFiles = opFiles.toArray(new String[opFiles.size()]);
+
+		try {
+			if (reportResults) {
+				Workload start = Workload.load(benchmark.mStartFiles[0]);
+				Workload ops = Workload.load(benchmark.mOpFiles[0]);
+				for (double score : benchmark.runIterations(benchmark.mImplementations[0], start, ops, System.out)) {
+					System.out.println(RESULT_PREFIX + score);
+				}
+			}
+			else {
+				benchmark.runAll();
+			}
+		} catch (IOException | InterruptedException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	} // end of main()
+
+} // end of class MultisetBenchmark
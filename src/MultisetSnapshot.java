@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary snapshot of the contents of a multiset, so a populated multiset can
+ * be saved once and restored later instead of replaying the commands that
+ * built it.
+ *
+ * Layout, big-endian:
+ *   int     magic 'MSNP'
+ *   byte    version
+ *   byte    flags, bit 0 set if the entries are in ascending order
+ *   int     number of entries
+ *   entries, each: varint key length, UTF-8 key bytes, varint count
+ * Varints are unsigned LEB128, as in workload files.  Keys are the String
+ * form of the elements, as print() writes them.
+ *
+ * Snapshots are written through a FileChannel and read by memory mapping
+ * the file.
+ */
+public class MultisetSnapshot
+{
+	/** 'MSNP' */
+	static final int MAGIC = 0x4D534E50;
+	static final int VERSION = 1;
+	private static final int SORTED = 1;
+	/** Bytes before the first entry. */
+	private static final int HEADER_SIZE = 10;
+	/** Offset of the flags and number of entries, filled in once the entries are written. */
+	private static final int FLAGS_OFFSET = 5;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** Keys and counts, in file order. */
+	private final SortedEntries<String> mEntries;
+	private final boolean mSorted;
+
+
+	private MultisetSnapshot(SortedEntries<String> entries, boolean sorted) {
+		mEntries = entries;
+		mSorted = sorted;
+	} // end of MultisetSnapshot()
+
+
+	/**
+	 * @return Keys and counts in file order; only ascending if isSorted().
+	 */
+	public SortedEntries<String> entries() {
+		return mEntries;
+	} // end of entries()
+
+
+	/**
+	 * @return True if the entries are in ascending order.
+	 */
+	public boolean isSorted() {
+		return mSorted;
+	} // end of isSorted()
+
+
+	/**
+	 * Writes every entry of multiset to path, in entryIterator() order.  The
+	 * snapshot is marked sorted if the multiset is sorted and the keys ascend.
+	 */
+	public static void write(Multiset<?> multiset, Path path) throws IOException {
+		write(multiset.entryIterator(), multiset.isSorted(), path);
+	} // end of write()
+
+
+	/**
+	 * Writes every entry of it to path and forces it to the device.
+	 *
+	 * @param sorted True if it returns elements in ascending order.
+	 */
+	public static void write(Multiset.EntryIterator<?> it, boolean sorted, Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			buffer.putInt(MAGIC);
+			buffer.put((byte) VERSION);
+			buffer.put((byte) 0);
+			buffer.putInt(0);
+
+			// sorted only if the keys also ascend as Strings, which is the order read() checks
+			String previous = null;
+			int entryNum = 0;
+			while (it.hasNext()) {
+				String key = String.valueOf(it.next());
+				if (previous != null && previous.compareTo(key) >= 0) {
+					sorted = false;
+				}
+				previous = key;
+
+				byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+				// two varints take at most ten bytes
+				if (buffer.remaining() < bytes.length + 10) {
+					drain(channel, buffer);
+				}
+				putVarint(buffer, bytes.length);
+				if (bytes.length > buffer.remaining() - 5) {
+					drain(channel, buffer);
+					writeFully(channel, ByteBuffer.wrap(bytes));
+				}
+				else {
+					buffer.put(bytes);
+				}
+				putVarint(buffer, it.count());
+				entryNum++;
+			}
+			drain(channel, buffer);
+
+			buffer.put((byte) (sorted ? SORTED : 0));
+			buffer.putInt(entryNum);
+			buffer.flip();
+			channel.write(buffer, FLAGS_OFFSET);
+			channel.force(true);
+		}
+	} // end of write()
+
+
+	/**
+	 * Maps path and reads every entry.
+	 *
+	 * @throws IOException If the file is not a snapshot, is truncated, or
+	 *         claims to be sorted but is not.
+	 */
+	public static MultisetSnapshot read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(path + ": snapshot larger than 2 GB.");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			try {
+				if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+					throw new IOException(path + ": not a multiset snapshot.");
+				}
+				int version = buffer.get();
+				if (version != VERSION) {
+					throw new IOException(path + ": unsupported snapshot version " + version + ".");
+				}
+				boolean sorted = (buffer.get() & SORTED) != 0;
+				int entryNum = buffer.getInt();
+				if (entryNum < 0) {
+					throw new IOException(path + ": corrupt snapshot.");
+				}
+
+				SortedEntries<String> entries = new SortedEntries<String>(Math.min(entryNum, buffer.remaining() / 2));
+				byte[] bytes = new byte[64];
+				String previous = null;
+				for (int i = 0; i < entryNum; i++) {
+					int length = getVarint(buffer);
+					if (length < 0) {
+						throw new IOException(path + ": corrupt snapshot.");
+					}
+					if (length > bytes.length) {
+						bytes = new byte[Math.max(length, bytes.length * 2)];
+					}
+					buffer.get(bytes, 0, length);
+					String key = new String(bytes, 0, length, StandardCharsets.UTF_8);
+					int count = getVarint(buffer);
+					if (sorted && previous != null && previous.compareTo(key) >= 0) {
+						throw new IOException(path + ": snapshot entries out of order at entry " + i + ".");
+					}
+					entries.append(key, count);
+					previous = key;
+				}
+				return new MultisetSnapshot(entries, sorted);
+			}
+			catch (BufferUnderflowException e) {
+				throw new IOException(path + ": truncated snapshot.");
+			}
+		}
+	} // end of read()
+
+
+	/**
+	 * Writes out what has been put in buffer and empties it.
+	 */
+	private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		writeFully(channel, buffer);
+		buffer.clear();
+	} // end of drain()
+
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	} // end of writeFully()
+
+
+	private static void putVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	} // end of putVarint()
+
+
+	private static int getVarint(ByteBuffer buffer) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in snapshot.");
+	} // end of getVarint()
+
+} // end of class MultisetSnapshot
@@ -1,5 +1,6 @@
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
 
 
@@ -20,95 +21,129 @@ public class MultisetTester
 	 * Print help/usage message.
 	 */
 	public static void usage(String progName) {
-		System.err.println(progName + ": <implementation> [fileName to output search results to]");
-		System.err.println("<implementation> = <linkedlist | sortedlinkedlist | bst| hash | baltree>");
+		System.err.println(progName + ": [-latency] [-counters] [-restore <snapshot>] [-snapshot <snapshot>] [-journal <directory>] <implementation> [fileName to output search results to]");
+		System.err.println("-latency = time every operation and print latency percentiles to stderr");
+		System.err.println("-counters = count comparisons, node visits, allocations and restructures per operation and print them to stderr");
+		System.err.println("-restore = load the multiset from a snapshot file before processing the commands");
+		System.err.println("-snapshot = save the multiset to a snapshot file after processing the commands");
+		System.err.println("-journal = recover the multiset from a journal directory and journal every change to it");
+		System.err.println("<implementation> = <linkedlist | sortedlinkedlist | mtflist | transposelist | countlist | skiplist | bst| avltree | hash | openhash | offheap | trie | concurrenthash | concurrentskiplist | baltree>");
 		System.exit(1);
 	} // end of usage
 
 
 	/**
-	 * Process the operation commands coming from inReader, and updates the multiset according to the operations.
+	 * Process the operation commands coming from parser, and updates the multiset according to the operations.
+	 * Runs of consecutive A, S or RA commands are executed through the multiset's bulk operations.
 	 * 
-	 * @param inReader Input reader where the operation commands are coming from.
+	 * @param parser Parser over the input where the operation commands are coming from.
 	 * @param searchOutWriter Where to output the results of search.
 	 * @param multiset The multiset which the operations are executed on.
 	 * 
 	 * @throws IOException If there is an exception to do with I/O.
 	 */
-	public static void processOperations(BufferedReader inReader, PrintWriter searchOutWriter, Multiset<String> multiset) 
+	public static void processOperations(CommandParser parser, PrintWriter searchOutWriter, Multiset<String> multiset) 
 		throws IOException
 	{
-		String line;
-		int lineNum = 1;
+		processOperations(parser, searchOutWriter, multiset, null);
+	} // end of processOperations()
+
+
+	/**
+	 * Process the operation commands coming from parser, optionally timing each operation.
+	 * 
+	 * @param parser Parser over the input where the operation commands are coming from.
+	 * @param searchOutWriter Where to output the results of search.
+	 * @param multiset The multiset which the operations are executed on.
+	 * @param latencies Histograms from LatencyHistogram.forOperations() to record the latency of
+	 *        every A, S, RO and RA in, which are then executed one at a time instead of in batches.
+	 *        Null for the usual batched execution.
+	 * 
+	 * @throws IOException If there is an exception to do with I/O.
+	 */
+	public static void processOperations(CommandParser parser, PrintWriter searchOutWriter, Multiset<String> multiset,
+		LatencyHistogram[] latencies) throws IOException
+	{
+		int command;
 		boolean bQuit = false;
+		OperationBatch batch = new OperationBatch();
 		
 		// continue reading in commands until we either receive the quit signal or there are no more input commands
-		while (!bQuit && (line = inReader.readLine()) != null) {
-			String[] tokens = line.split(" ");
+		while (!bQuit && (command = parser.next()) != CommandParser.EOF) {
+			int lineNum = parser.lineNumber();
+			int tokenNum = parser.tokenCount();
 
 			// check if there is at least an operation command
-			if (tokens.length < 1) {
+			if (tokenNum < 1) {
 				System.err.println(lineNum + ": not enough tokens.");
-				lineNum++;
 				continue;
 			}
 
-			String command = tokens[0];
+			// instrumented mode, time each element operation on its own
+			if (latencies != null && tokenNum == 2 && command <= CommandParser.REMOVE_ALL) {
+				OperationBatch.executeTimed(command, parser.key(), multiset, searchOutWriter, latencies);
+				continue;
+			}
+
+			// anything without a bulk counterpart runs after the pending batch
+			if (!OperationBatch.isBatchable(command)) {
+				batch.flush(multiset, searchOutWriter);
+			}
+
 			// determine which operation to execute
-			switch (command.toUpperCase()) {
+			switch (command) {
 				// add
-				case "A":
-					if (tokens.length == 2) {
-						multiset.add(tokens[1]);
+				case CommandParser.ADD:
+					if (tokenNum == 2) {
+						batch.queue(command, parser.key(), multiset, searchOutWriter);
 					}
 					else {
 						System.err.println(lineNum + ": not enough tokens.");
 					}
 					break;
 				// search
-				case "S":
-					if (tokens.length == 2) {
-						int foundNumber = multiset.search(tokens[1]);
-						searchOutWriter.println(tokens[1] + " " + foundNumber);
+				case CommandParser.SEARCH:
+					if (tokenNum == 2) {
+						batch.queue(command, parser.key(), multiset, searchOutWriter);
 					}
 					else {
 						// we print -1 to indicate error for automated testing
+						batch.flush(multiset, searchOutWriter);
 						searchOutWriter.println(-1);
 						System.err.println(lineNum + ": not enough tokens.");
 					}
 					break;
 				// remove one instance
-				case "RO":
-					if (tokens.length == 2) {
-						multiset.removeOne(tokens[1]);
+				case CommandParser.REMOVE_ONE:
+					if (tokenNum == 2) {
+						multiset.removeOne(parser.key());
 					}
 					else {
 						System.err.println(lineNum + ": not enough tokens.");
 					}
 					break;
 				// remove all instances
-				case "RA":
-					if (tokens.length == 2) {
-						multiset.removeAll(tokens[1]);
+				case CommandParser.REMOVE_ALL:
+					if (tokenNum == 2) {
+						batch.queue(command, parser.key(), multiset, searchOutWriter);
 					}
 					else {
 						System.err.println(lineNum + ": not enough tokens.");
 					}
 					break;		
 				// print
-				case "P":
+				case CommandParser.PRINT:
 					multiset.print(outStream);
 					break;
 				// quit
-				case "Q":
+				case CommandParser.QUIT:
 					bQuit = true;
 					break;
 				default:
 					System.err.println(lineNum + ": Unknown command.");
 			}
-
-			lineNum++;
 		}
+		batch.flush(multiset, searchOutWriter);
 
 	} // end of processOperations() 
 
@@ -118,6 +153,40 @@ public class MultisetTester
 	 */
 	public static void main(String[] args) {
 
+		// optional flags to record per operation latencies and costs
+		LatencyHistogram[] latencies = null;
+		boolean countCosts = false;
+		// and snapshot files to start from and to save to
+		String restoreFilename = null;
+		String snapshotFilename = null;
+		String journalDirectory = null;
+		while (args.length > 0 && args[0].startsWith("-")) {
+			int used = 1;
+			if (args[0].equals("-latency")) {
+				latencies = LatencyHistogram.forOperations();
+			}
+			else if (args[0].equals("-counters")) {
+				countCosts = true;
+			}
+			else if (args.length > 1 && args[0].equals("-restore")) {
+				restoreFilename = args[1];
+				used = 2;
+			}
+			else if (args.length > 1 && args[0].equals("-snapshot")) {
+				snapshotFilename = args[1];
+				used = 2;
+			}
+			else if (args.length > 1 && args[0].equals("-journal")) {
+				journalDirectory = args[1];
+				used = 2;
+			}
+			else {
+				System.err.println("Unknown option " + args[0] + ".");
+				usage(progName);
+			}
+			args = Arrays.copyOfRange(args, used, args.length);
+		}
+
 		// check number of command line arguments
 		if (args.length > 2 || args.length < 1) {
 			System.err.println("Incorrect number of arguments.");
@@ -141,12 +210,42 @@ public class MultisetTester
 			case "sortedlinkedlist":
 				multiset = new SortedLinkedListMultiset<String>();
 				break;
+			case "mtflist":
+				multiset = new SelfOrganizingListMultiset<String>(SelfOrganizingListMultiset.MOVE_TO_FRONT);
+				break;
+			case "transposelist":
+				multiset = new SelfOrganizingListMultiset<String>(SelfOrganizingListMultiset.TRANSPOSE);
+				break;
+			case "countlist":
+				multiset = new SelfOrganizingListMultiset<String>(SelfOrganizingListMultiset.COUNT);
+				break;
+			case "skiplist":
+				multiset = new SkipListMultiset<String>();
+				break;
 			case "bst":
 				multiset = new BstMultiset<String>();
 				break;
+			case "avltree":
+				multiset = new AvlTreeMultiset<String>();
+				break;
 			case "hash":
 				multiset = new HashMultiset<String>();
 				break;
+			case "openhash":
+				multiset = new OpenHashMultiset<String>();
+				break;
+			case "offheap":
+				multiset = new OffHeapStringMultiset();
+				break;
+			case "trie":
+				multiset = new TrieMultiset();
+				break;
+			case "concurrenthash":
+				multiset = new ConcurrentHashMultiset<String>();
+				break;
+			case "concurrentskiplist":
+				multiset = new ConcurrentSkipListMultiset<String>();
+				break;
 			case "baltree":
 				multiset = new BalTreeMultiset<String>();
 				break;
@@ -154,18 +253,48 @@ public class MultisetTester
 				System.err.println("Unknown implmementation type.");
 				usage(progName);
 		}
+		InstrumentedMultiset<String> instrumented = null;
+		if (countCosts) {
+			instrumented = new InstrumentedMultiset<String>(multiset);
+			multiset = instrumented;
+		}
 
 
 		// construct in and output streams/writers/readers, then process each operation.
 		try {
-			BufferedReader inReader = new BufferedReader(new InputStreamReader(System.in));
+			CommandParser parser = new CommandParser(System.in);
 			PrintWriter searchOutWriter = new PrintWriter(System.out, true);
 			
 			if (searchOutFilename != null) {
 				searchOutWriter = new PrintWriter(new FileWriter(searchOutFilename), true);
 			}
+			JournaledMultiset<String> journaled = null;
+			if (journalDirectory != null) {
+				journaled = new JournaledMultiset<String>(multiset, Paths.get(journalDirectory));
+				multiset = journaled;
+				// recovery is not part of the measured run
+				if (instrumented != null) {
+					instrumented.reset();
+				}
+			}
+			if (restoreFilename != null) {
+				multiset.restore(Paths.get(restoreFilename));
+			}
 			// process the operations
-			processOperations(inReader, searchOutWriter, multiset);
+			processOperations(parser, searchOutWriter, multiset, latencies);
+			if (snapshotFilename != null) {
+				multiset.snapshot(Paths.get(snapshotFilename));
+			}
+			if (journaled != null) {
+				journaled.close();
+				journaled.printStats(implementationType, System.err);
+			}
+			if (latencies != null) {
+				LatencyHistogram.printReport(implementationType, latencies, System.err);
+			}
+			if (instrumented != null) {
+				instrumented.printReport(implementationType, System.err);
+			}
 		} catch (IOException e) {
 			System.err.println(e.getMessage());
 		}
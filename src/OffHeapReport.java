@@ -0,0 +1,97 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares memory use and GC cost of HashMultiset and OffHeapStringMultiset
+ * when loading a large number of distinct words.
+ *
+ * Words are generated as "word" + i so any vocabulary size can be reached.
+ * For each implementation the report gives heap bytes retained per distinct
+ * word (measured after a full GC), direct memory bytes per word, total bytes
+ * per word and the GC time spent while loading.
+ *
+ * Run with a heap large enough for the HashMultiset case, e.g.
+ * java -Xmx8g OffHeapReport 20000000
+ */
+public class OffHeapReport {
+	/** Name of class, used in error messages. */
+	protected static final String progName = "OffHeapReport";
+
+	/**
+	 * Print help/usage message.
+	 */
+	public static void usage(String progName) {
+		System.err.println(progName + ": [number of distinct words]");
+		System.exit(1);
+	} // end of usage
+
+	public static void main(String[] args) {
+		int distinct = 1000000;
+		if (args.length == 1) {
+			distinct = Integer.parseInt(args[0]);
+		}
+		else if (args.length > 1) {
+			usage(progName);
+		}
+
+		System.out.println("implementation, distinct words, heap bytes/word, off-heap bytes/word, total bytes/word, GC time (ms), load time (secs)");
+		report("hash", new HashMultiset<String>(), distinct);
+		report("offheap", new OffHeapStringMultiset(), distinct);
+	} // end of main()
+
+	private static void report(String name, Multiset<String> multiset, int distinct) {
+		long heapBefore = usedHeap();
+		long gcBefore = gcTime();
+		long startTime = System.nanoTime();
+
+		for (int i = 0; i < distinct; i++) {
+			multiset.add("word" + i);
+		}
+		// a second pass bumps counts, the common case once the vocabulary is known
+		for (int i = 0; i < distinct; i++) {
+			multiset.add("word" + i);
+		}
+
+		long endTime = System.nanoTime();
+		long gcAfter = gcTime();
+		long heapAfter = usedHeap();
+
+		long offHeap = 0;
+		if (multiset instanceof OffHeapStringMultiset) {
+			offHeap = ((OffHeapStringMultiset) multiset).offHeapBytes();
+		}
+		double heapPerWord = (double) Math.max(0, heapAfter - heapBefore) / distinct;
+		double offHeapPerWord = (double) offHeap / distinct;
+
+		System.out.printf("%s, %d, %.1f, %.1f, %.1f, %d, %.3f\n", name, distinct, heapPerWord, offHeapPerWord,
+				heapPerWord + offHeapPerWord, gcAfter - gcBefore, (endTime - startTime) / Math.pow(10, 9));
+
+		// keep the multiset reachable until after the heap was measured
+		if (multiset.search("word0") != 2) {
+			System.err.println(name + ": unexpected count for word0");
+		}
+	} // end of report()
+
+	/**
+	 * @return Heap in use after asking for a full collection.
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	} // end of usedHeap()
+
+	/**
+	 * @return Accumulated collection time of all collectors, in milliseconds.
+	 */
+	private static long gcTime() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	} // end of gcTime()
+
+} // end of class OffHeapReport
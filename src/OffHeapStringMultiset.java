@@ -0,0 +1,435 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+/**
+ * Off-heap implementation of a multiset of Strings, for vocabularies too large
+ * for HashMultiset's per-entry objects.
+ *
+ * Each distinct word is one record in an arena of direct ByteBuffer chunks:
+ *
+ *   count (int) | hash (int) | length (int) | UTF-8 bytes
+ *
+ * An open-addressing index, itself a direct buffer of longs, maps hashes to
+ * record addresses (chunk number in the high word, offset in the low word,
+ * plus one so that zero means empty).  The Java heap only holds the chunk
+ * list, so the garbage collector has a handful of objects to trace however
+ * many words are stored.
+ *
+ * Removing the last instance of a word tombstones its index slot and leaves a
+ * dead record behind.  Once dead records take up more than half of an arena
+ * that spans several chunks, the live records are copied into fresh chunks
+ * and the index is rebuilt.
+ */
+public class OffHeapStringMultiset extends Multiset<String>
+{
+	/** Default size of each arena chunk. */
+	private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+	/** Bytes in a record before the key bytes. */
+	private static final int HEADER_SIZE = 12;
+	/** Index slot value for a removed record. */
+	private static final long TOMBSTONE = -1L;
+	/** Index is rebuilt once live plus removed slots exceed this fraction. */
+	private static final float LOAD_FACTOR = 0.5f;
+	/** Most index slots, the largest power of two whose 8-byte slots fit in one ByteBuffer. */
+	private static final int MAX_CAPACITY = 1 << 27;
+	/** Most distinct words the index can be sized for, so that keys / LOAD_FACTOR + 1 fits in MAX_CAPACITY. */
+	public static final int MAX_KEYS = (MAX_CAPACITY >>> 1) - 1;
+
+	/** Arena chunks holding the records. */
+	protected ArrayList<ByteBuffer> mChunks;
+	/** Chunk new records are appended to. */
+	protected ByteBuffer mCurrentChunk;
+	/** Size of newly allocated chunks. */
+	protected final int mChunkSize;
+	/** Open-addressing index of record addresses, 8 bytes per slot. */
+	protected ByteBuffer mIndex;
+	/** Number of slots in mIndex, a power of two. */
+	protected int mCapacity;
+	/** Number of live words. */
+	protected int mSize;
+	/** Number of tombstoned index slots. */
+	protected int mTombstones;
+	/** Total capacity of the arena chunks. */
+	protected long mArenaBytes;
+	/** Arena bytes taken by records of removed words. */
+	protected long mDeadBytes;
+
+	/** Scratch buffer the current key is encoded into, reused between calls. */
+	private byte[] mKeyBytes = new byte[64];
+	/** Length of the key in mKeyBytes. */
+	private int mKeyLength;
+
+
+	public OffHeapStringMultiset() {
+		this(DEFAULT_CHUNK_SIZE, 16);
+	} // end of OffHeapStringMultiset()
+
+
+	/**
+	 * @param chunkSize Bytes per arena chunk.
+	 * @param expectedKeys Number of distinct words to size the index for, at most MAX_KEYS.
+	 */
+	public OffHeapStringMultiset(int chunkSize, int expectedKeys) {
+		if (expectedKeys > MAX_KEYS) {
+			throw new IllegalArgumentException(capacityExceeded(expectedKeys));
+		}
+		mChunkSize = chunkSize;
+		mChunks = new ArrayList<ByteBuffer>();
+		mArenaBytes = 0;
+		mCurrentChunk = newChunk(chunkSize);
+		mCapacity = indexCapacityFor(expectedKeys);
+		mIndex = ByteBuffer.allocateDirect(mCapacity * 8);
+		mSize = 0;
+		mTombstones = 0;
+		mDeadBytes = 0;
+	} // end of OffHeapStringMultiset()
+
+
+	public void add(String item) {
+		int hash = encode(item);
+		int slot = probe(hash);
+		if (slot >= 0) {
+			long address = mIndex.getLong(slot * 8) - 1;
+			ByteBuffer chunk = mChunks.get((int) (address >>> 32));
+			int offset = (int) address;
+			chunk.putInt(offset, chunk.getInt(offset) + 1);
+			return;
+		}
+
+		if (mSize == MAX_KEYS) {
+			throw new IllegalStateException(capacityExceeded(mSize + 1));
+		}
+		slot = ~slot;
+		if (mIndex.getLong(slot * 8) == TOMBSTONE) {
+			mTombstones--;
+		}
+		mIndex.putLong(slot * 8, appendRecord(hash) + 1);
+		mSize++;
+
+		if (mSize + mTombstones > mCapacity * LOAD_FACTOR) {
+			rehash(indexCapacityFor(mSize));
+		}
+	} // end of add()
+
+
+	public int search(String item) {
+		int slot = probe(encode(item));
+		if (slot < 0) {
+			return 0;
+		}
+		long address = mIndex.getLong(slot * 8) - 1;
+		return mChunks.get((int) (address >>> 32)).getInt((int) address);
+	} // end of search()
+
+
+	public void removeOne(String item) {
+		int slot = probe(encode(item));
+		if (slot >= 0) {
+			long address = mIndex.getLong(slot * 8) - 1;
+			ByteBuffer chunk = mChunks.get((int) (address >>> 32));
+			int offset = (int) address;
+			int count = chunk.getInt(offset);
+			if (count == 1) {
+				clearSlot(slot, chunk, offset);
+			}
+			else {
+				chunk.putInt(offset, count - 1);
+			}
+		}
+	} // end of removeOne()
+
+
+	public void removeAll(String item) {
+		int slot = probe(encode(item));
+		if (slot >= 0) {
+			long address = mIndex.getLong(slot * 8) - 1;
+			clearSlot(slot, mChunks.get((int) (address >>> 32)), (int) address);
+		}
+	} // end of removeAll()
+
+
+	/**
+	 * Grows the index once to fit the whole batch before counting it.
+	 */
+	public void addAll(Collection<? extends String> items) {
+		// duplicates may make the batch look larger than the index can hold
+		int capacity = indexCapacityFor((int) Math.min((long) mSize + items.size(), MAX_KEYS));
+		if (capacity > mCapacity) {
+			rehash(capacity);
+		}
+
+		for (String item : items) {
+			add(item);
+		}
+	} // end of addAll()
+
+
+	/**
+	 * Scans the index in slot order, decoding one String per word.
+	 */
+	public EntryIterator<String> entryIterator() {
+		return new EntryIterator<String>() {
+			/** Slot of the next live record, mCapacity when exhausted. */
+			private int mNextSlot = advance(0);
+			private int mCount = 0;
+
+			public boolean hasNext() {
+				return mNextSlot < mCapacity;
+			}
+
+			public String next() {
+				if (mNextSlot >= mCapacity) {
+					throw new NoSuchElementException();
+				}
+				long address = mIndex.getLong(mNextSlot * 8) - 1;
+				ByteBuffer chunk = mChunks.get((int) (address >>> 32));
+				int offset = (int) address;
+				mCount = chunk.getInt(offset);
+				mNextSlot = advance(mNextSlot + 1);
+				return decode(chunk, offset);
+			}
+
+			public int count() {
+				return mCount;
+			}
+
+			private int advance(int slot) {
+				while (slot < mCapacity && mIndex.getLong(slot * 8) - 1 < 0) {
+					slot++;
+				}
+				return slot;
+			}
+		};
+	} // end of entryIterator()
+
+
+	/**
+	 * @return Number of distinct words stored.
+	 */
+	public int size() {
+		return mSize;
+	} // end of size()
+
+
+	/**
+	 * @return Direct memory reserved for the arena and index, in bytes.
+	 */
+	public long offHeapBytes() {
+		return mIndex.capacity() + mArenaBytes;
+	} // end of offHeapBytes()
+
+
+	/**
+	 * Encodes item as UTF-8 into mKeyBytes, without allocating for ASCII words.
+	 *
+	 * @return Hash of the encoded bytes.
+	 */
+	private int encode(String item) {
+		int length = item.length();
+		if (mKeyBytes.length < length * 3) {
+			mKeyBytes = new byte[length * 3];
+		}
+
+		int n = 0;
+		for (int i = 0; i < length; i++) {
+			char c = item.charAt(i);
+			if (c >= 0x80) {
+				// rare non-ASCII word, let the JDK deal with surrogates
+				byte[] bytes = item.getBytes(StandardCharsets.UTF_8);
+				System.arraycopy(bytes, 0, mKeyBytes, 0, bytes.length);
+				n = bytes.length;
+				break;
+			}
+			mKeyBytes[n++] = (byte) c;
+		}
+		mKeyLength = n;
+
+		int hash = 0x811C9DC5;
+		for (int i = 0; i < n; i++) {
+			hash = (hash ^ mKeyBytes[i]) * 0x01000193;
+		}
+		return hash;
+	} // end of encode()
+
+
+	/**
+	 * Looks up the key in mKeyBytes.
+	 *
+	 * @return Slot of the key if present, otherwise the complement of the slot
+	 *         to insert it into.
+	 */
+	private int probe(int hash) {
+		int mask = mCapacity - 1;
+		int slot = spread(hash) & mask;
+		int firstTombstone = -1;
+
+		while (true) {
+			long entry = mIndex.getLong(slot * 8);
+			if (entry == 0) {
+				return ~(firstTombstone >= 0 ? firstTombstone : slot);
+			}
+			else if (entry == TOMBSTONE) {
+				if (firstTombstone < 0) {
+					firstTombstone = slot;
+				}
+			}
+			else if (keyEquals(entry - 1, hash)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	} // end of probe()
+
+
+	private boolean keyEquals(long address, int hash) {
+		ByteBuffer chunk = mChunks.get((int) (address >>> 32));
+		int offset = (int) address;
+		if (chunk.getInt(offset + 4) != hash || chunk.getInt(offset + 8) != mKeyLength) {
+			return false;
+		}
+		int start = offset + HEADER_SIZE;
+		for (int i = 0; i < mKeyLength; i++) {
+			if (chunk.get(start + i) != mKeyBytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	} // end of keyEquals()
+
+
+	/**
+	 * Appends a record for the key in mKeyBytes with a count of one.
+	 *
+	 * @return Address of the new record.
+	 */
+	private long appendRecord(int hash) {
+		int recordSize = HEADER_SIZE + mKeyLength;
+		if (mCurrentChunk.remaining() < recordSize) {
+			mCurrentChunk = newChunk(Math.max(mChunkSize, recordSize));
+		}
+
+		int offset = mCurrentChunk.position();
+		mCurrentChunk.putInt(1);
+		mCurrentChunk.putInt(hash);
+		mCurrentChunk.putInt(mKeyLength);
+		mCurrentChunk.put(mKeyBytes, 0, mKeyLength);
+		return ((long) (mChunks.size() - 1) << 32) | offset;
+	} // end of appendRecord()
+
+
+	/**
+	 * @return Index capacity for the given number of distinct words.
+	 * @throws IllegalStateException If it would exceed MAX_CAPACITY slots.
+	 */
+	private static int indexCapacityFor(int keys) {
+		if (keys > MAX_KEYS) {
+			throw new IllegalStateException(capacityExceeded(keys));
+		}
+		// in double, which is exact here, unlike OpenHashMultiset.tableSizeFor()'s float
+		long needed = (long) Math.ceil(Math.max(keys, 1) / (double) LOAD_FACTOR) + 1;
+		int capacity = 16;
+		while (capacity < needed) {
+			capacity <<= 1;
+		}
+		return capacity;
+	} // end of indexCapacityFor()
+
+
+	private static String capacityExceeded(int keys) {
+		return "Off-heap index capacity exceeded: " + keys + " distinct words, at most " + MAX_KEYS + " fit.";
+	} // end of capacityExceeded()
+
+
+	private ByteBuffer newChunk(int size) {
+		ByteBuffer chunk = ByteBuffer.allocateDirect(size);
+		mChunks.add(chunk);
+		mArenaBytes += size;
+		return chunk;
+	} // end of newChunk()
+
+
+	private void clearSlot(int slot, ByteBuffer chunk, int offset) {
+		chunk.putInt(offset, 0);
+		mDeadBytes += HEADER_SIZE + chunk.getInt(offset + 8);
+		mIndex.putLong(slot * 8, TOMBSTONE);
+		mSize--;
+		mTombstones++;
+
+		if (mChunks.size() > 1 && mDeadBytes * 2 > mArenaBytes) {
+			rehash(indexCapacityFor(mSize));
+		}
+	} // end of clearSlot()
+
+
+	/**
+	 * Rebuilds the index with the given capacity, dropping tombstones.  The
+	 * arena is compacted at the same time when most of it is dead records.
+	 */
+	protected void rehash(int capacity) {
+		ByteBuffer oldIndex = mIndex;
+		int oldCapacity = mCapacity;
+		ArrayList<ByteBuffer> oldChunks = mChunks;
+
+		boolean compact = mDeadBytes * 2 > mArenaBytes;
+		if (compact) {
+			mChunks = new ArrayList<ByteBuffer>();
+			mArenaBytes = 0;
+			mCurrentChunk = newChunk(mChunkSize);
+			mDeadBytes = 0;
+		}
+
+		mIndex = ByteBuffer.allocateDirect(capacity * 8);
+		mCapacity = capacity;
+		mTombstones = 0;
+		int mask = capacity - 1;
+
+		for (int i = 0; i < oldCapacity; i++) {
+			long address = oldIndex.getLong(i * 8) - 1;
+			if (address < 0) {
+				continue;
+			}
+
+			ByteBuffer chunk = oldChunks.get((int) (address >>> 32));
+			int offset = (int) address;
+			int hash = chunk.getInt(offset + 4);
+			if (compact) {
+				int count = chunk.getInt(offset);
+				mKeyLength = chunk.getInt(offset + 8);
+				if (mKeyBytes.length < mKeyLength) {
+					mKeyBytes = new byte[mKeyLength];
+				}
+				for (int b = 0; b < mKeyLength; b++) {
+					mKeyBytes[b] = chunk.get(offset + HEADER_SIZE + b);
+				}
+				address = appendRecord(hash);
+				mChunks.get((int) (address >>> 32)).putInt((int) address, count);
+			}
+
+			int slot = spread(hash) & mask;
+			while (mIndex.getLong(slot * 8) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			mIndex.putLong(slot * 8, address + 1);
+		}
+	} // end of rehash()
+
+
+	private static String decode(ByteBuffer chunk, int offset) {
+		int length = chunk.getInt(offset + 8);
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = chunk.get(offset + HEADER_SIZE + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	} // end of decode()
+
+
+	private static int spread(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	} // end of spread()
+
+} // end of class OffHeapStringMultiset
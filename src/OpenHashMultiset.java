@@ -0,0 +1,259 @@
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+/**
+ * Open-addressing hash table implementation of a multiset.  Implements Multiset abstract class.
+ *
+ * Keys live in one array and their counts in a parallel int array, so each
+ * operation is a single linear probe and counting an existing key allocates
+ * nothing.  Removed slots are marked with a tombstone so that probe chains
+ * through them stay intact; tombstones are reused by later inserts and purged
+ * whenever the table is rebuilt.
+ *
+ * @param T Type of elements that the multiset can hold.
+ */
+public class OpenHashMultiset<T> extends Multiset<T> implements Instrumentable
+{
+	/** Marker for a slot whose key has been removed. */
+	private static final Object TOMBSTONE = new Object();
+	/** Initial number of slots, must be a power of two. */
+	private static final int DEFAULT_CAPACITY = 16;
+	/** Table is rebuilt once live keys plus tombstones exceed this fraction. */
+	private static final float LOAD_FACTOR = 0.5f;
+
+	/** Slot keys, null for never used slots. */
+	protected Object[] mKeys;
+	/** Count of the key in the same slot. */
+	protected int[] mCounts;
+	/** Number of live keys. */
+	protected int mSize;
+	/** Number of tombstoned slots. */
+	protected int mTombstones;
+	/** Cost counters, null unless instrumented. */
+	protected CostCounters mCounters;
+
+
+	public OpenHashMultiset() {
+		this(DEFAULT_CAPACITY);
+	} // end of OpenHashMultiset()
+
+
+	/**
+	 * @param expectedKeys Number of distinct keys to size the table for.
+	 */
+	public OpenHashMultiset(int expectedKeys) {
+		int capacity = tableSizeFor(expectedKeys);
+		mKeys = new Object[capacity];
+		mCounts = new int[capacity];
+		mSize = 0;
+		mTombstones = 0;
+	} // end of OpenHashMultiset()
+
+
+	public void add(T item) {
+		int slot = probe(item);
+		if (slot >= 0) {
+			mCounts[slot]++;
+			return;
+		}
+
+		// not found, ~slot is the first free or tombstoned slot on the chain
+		slot = ~slot;
+		if (mKeys[slot] == TOMBSTONE) {
+			mTombstones--;
+		}
+		mKeys[slot] = item;
+		mCounts[slot] = 1;
+		mSize++;
+
+		if (mSize + mTombstones > mKeys.length * LOAD_FACTOR) {
+			rehash(tableSizeFor(mSize));
+		}
+	} // end of add()
+
+
+	public int search(T item) {
+		int slot = probe(item);
+		return slot >= 0 ? mCounts[slot] : 0;
+	} // end of search()
+
+
+	public void removeOne(T item) {
+		int slot = probe(item);
+		if (slot >= 0) {
+			if (mCounts[slot] == 1) {
+				clearSlot(slot);
+			}
+			else {
+				mCounts[slot]--;
+			}
+		}
+	} // end of removeOne()
+
+
+	public void removeAll(T item) {
+		int slot = probe(item);
+		if (slot >= 0) {
+			clearSlot(slot);
+		}
+	} // end of removeAll()
+
+
+	/**
+	 * Grows the table once to fit the whole batch before counting it.
+	 */
+	public void addAll(Collection<? extends T> items) {
+		int capacity = tableSizeFor(mSize + items.size());
+		if (capacity > mKeys.length) {
+			rehash(capacity);
+		}
+
+		for (T item : items) {
+			add(item);
+		}
+	} // end of addAll()
+
+
+	/**
+	 * Scans the slots in table order.
+	 */
+	public EntryIterator<T> entryIterator() {
+		return new EntryIterator<T>() {
+			/** Slot of the next live key, mKeys.length when exhausted. */
+			private int mNextSlot = advance(0);
+			private int mCount = 0;
+
+			public boolean hasNext() {
+				return mNextSlot < mKeys.length;
+			}
+
+			@SuppressWarnings("unchecked")
+			public T next() {
+				if (mNextSlot >= mKeys.length) {
+					throw new NoSuchElementException();
+				}
+				T key = (T) mKeys[mNextSlot];
+				mCount = mCounts[mNextSlot];
+				mNextSlot = advance(mNextSlot + 1);
+				return key;
+			}
+
+			public int count() {
+				return mCount;
+			}
+
+			private int advance(int slot) {
+				while (slot < mKeys.length && (mKeys[slot] == null || mKeys[slot] == TOMBSTONE)) {
+					slot++;
+				}
+				return slot;
+			}
+		};
+	} // end of entryIterator()
+
+
+	public void setCostCounters(CostCounters counters) {
+		mCounters = counters;
+	} // end of setCostCounters()
+
+
+	/**
+	 * Walks the probe chain of item once.
+	 *
+	 * @return Slot index of item if present, otherwise the bitwise complement
+	 *         of the slot a new key should be inserted into.
+	 */
+	private int probe(Object item) {
+		Object[] keys = mKeys;
+		int mask = keys.length - 1;
+		int slot = hash(item) & mask;
+		int firstTombstone = -1;
+
+		while (true) {
+			Object key = keys[slot];
+			if (mCounters != null) {
+				mCounters.mNodesVisited++;
+			}
+			if (key == null) {
+				return ~(firstTombstone >= 0 ? firstTombstone : slot);
+			}
+			else if (key == TOMBSTONE) {
+				if (firstTombstone < 0) {
+					firstTombstone = slot;
+				}
+			}
+			else if (key == item || equal(key, item)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	} // end of probe()
+
+
+	private boolean equal(Object key, Object item) {
+		if (mCounters != null) {
+			mCounters.mComparisons++;
+		}
+		return key.equals(item);
+	} // end of equal()
+
+
+	private void clearSlot(int slot) {
+		mKeys[slot] = TOMBSTONE;
+		mCounts[slot] = 0;
+		mSize--;
+		mTombstones++;
+	} // end of clearSlot()
+
+
+	/**
+	 * Rebuilds the table with the given capacity, dropping all tombstones.
+	 */
+	protected void rehash(int capacity) {
+		if (mCounters != null) {
+			mCounters.mRestructures++;
+		}
+		Object[] oldKeys = mKeys;
+		int[] oldCounts = mCounts;
+		mKeys = new Object[capacity];
+		mCounts = new int[capacity];
+		mTombstones = 0;
+
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			Object key = oldKeys[i];
+			if (key != null && key != TOMBSTONE) {
+				int slot = hash(key) & mask;
+				while (mKeys[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				mKeys[slot] = key;
+				mCounts[slot] = oldCounts[i];
+			}
+		}
+	} // end of rehash()
+
+
+	/**
+	 * Spreads the high bits of hashCode() down, linear probing is sensitive to
+	 * clustered low bits.
+	 */
+	private static int hash(Object item) {
+		int h = item.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	} // end of hash()
+
+
+	/**
+	 * @return Smallest power of two table that holds keys under the load factor.
+	 */
+	protected static int tableSizeFor(int keys) {
+		int needed = (int) Math.ceil(Math.max(keys, 1) / LOAD_FACTOR) + 1;
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < needed) {
+			capacity <<= 1;
+		}
+		return capacity;
+	} // end of tableSizeFor()
+
+} // end of class OpenHashMultiset
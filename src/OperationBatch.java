@@ -0,0 +1,144 @@
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Collects runs of consecutive same-type commands from the command drivers so
+ * they can be handed to the multiset's bulk operations in one call:
+ * A runs go to addAll(), S runs to searchAll() and RA runs to removeAll().
+ *
+ * Any other command, a change of command type or a full batch flushes what is
+ * pending first, so operations still take effect in file order.
+ */
+public class OperationBatch
+{
+	/** Largest number of items held before an automatic flush. */
+	public static final int MAX_BATCH = 1 << 16;
+	/** Value of mCommand when nothing is pending. */
+	private static final int NONE = -1;
+
+	/** Command of the pending run, NONE if nothing is pending. */
+	protected int mCommand;
+	/** Items of the pending run, in file order. */
+	protected ArrayList<String> mItems;
+
+
+	public OperationBatch() {
+		mCommand = NONE;
+		mItems = new ArrayList<String>();
+	} // end of OperationBatch()
+
+
+	/**
+	 * @param command Operation code from CommandParser.
+	 * @return True if command has a bulk counterpart and can be queued.
+	 */
+	public static boolean isBatchable(int command) {
+		return command == CommandParser.ADD || command == CommandParser.SEARCH || command == CommandParser.REMOVE_ALL;
+	} // end of isBatchable()
+
+
+	/**
+	 * Executes one A, S, RO or RA command on its own, without batching, and
+	 * records how long the multiset call took.
+	 *
+	 * @param command CommandParser.ADD, SEARCH, REMOVE_ONE or REMOVE_ALL.
+	 * @param item Element the command applies to.
+	 * @param multiset The multiset which the operation is executed on.
+	 * @param searchOutWriter Where to output the result of search, may be null.
+	 * @param latencies Histograms from LatencyHistogram.forOperations().
+	 * @return Result of a search, else 0.
+	 */
+	public static int executeTimed(int command, String item, Multiset<String> multiset, PrintWriter searchOutWriter,
+			LatencyHistogram[] latencies) {
+		int found = 0;
+		long startTime = System.nanoTime();
+		switch (command) {
+			case CommandParser.ADD:
+				multiset.add(item);
+				break;
+			case CommandParser.SEARCH:
+				found = multiset.search(item);
+				break;
+			case CommandParser.REMOVE_ONE:
+				multiset.removeOne(item);
+				break;
+			case CommandParser.REMOVE_ALL:
+				multiset.removeAll(item);
+				break;
+			default:
+				return 0;
+		}
+		latencies[command].record(System.nanoTime() - startTime);
+
+		if (command == CommandParser.SEARCH && searchOutWriter != null) {
+			searchOutWriter.println(item + " " + found);
+		}
+		return found;
+	} // end of executeTimed()
+
+
+	/**
+	 * Queues one batchable command, flushing the pending run if it is of a
+	 * different type or full.
+	 *
+	 * @param command CommandParser.ADD, SEARCH or REMOVE_ALL.
+	 * @param item Element the command applies to.
+	 * @param multiset The multiset which the operations are executed on.
+	 * @param searchOutWriter Where to output the results of search, may be null.
+	 * @return Sum of the search results of any run flushed, as for flush().
+	 */
+	public int queue(int command, String item, Multiset<String> multiset, PrintWriter searchOutWriter) {
+		int found = 0;
+		if (mCommand != NONE && (mCommand != command || mItems.size() >= MAX_BATCH)) {
+			found = flush(multiset, searchOutWriter);
+		}
+		mCommand = command;
+		mItems.add(item);
+		return found;
+	} // end of queue()
+
+
+	/**
+	 * Executes the pending run, if any, through the matching bulk operation.
+	 *
+	 * @param multiset The multiset which the operations are executed on.
+	 * @param searchOutWriter Where to output the results of search, may be null.
+	 * @return Sum of the search results if the run was of S commands, else 0.
+	 *         Lets benchmarks consume the results without printing them.
+	 */
+	public int flush(Multiset<String> multiset, PrintWriter searchOutWriter) {
+		if (mCommand == NONE) {
+			return 0;
+		}
+
+		int found = 0;
+
+		switch (mCommand) {
+			case CommandParser.ADD:
+				multiset.addAll(mItems);
+				break;
+			case CommandParser.SEARCH:
+				String[] items = mItems.toArray(new String[mItems.size()]);
+				int[] foundNumbers = multiset.searchAll(items);
+				for (int foundNumber : foundNumbers) {
+					found += foundNumber;
+				}
+				if (searchOutWriter != null) {
+					for (int i = 0; i < items.length; i++) {
+						searchOutWriter.println(items[i] + " " + foundNumbers[i]);
+					}
+				}
+				break;
+			case CommandParser.REMOVE_ALL:
+				multiset.removeAll(mItems);
+				break;
+			default:
+				break;
+		}
+
+		mCommand = NONE;
+		mItems.clear();
+		return found;
+	} // end of flush()
+
+} // end of class OperationBatch
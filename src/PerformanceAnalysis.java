@@ -11,6 +11,8 @@ public class PerformanceAnalysis
 {
     protected static final String progName = "PerformanceAnalysis";
     protected static final int EXP_NUMBER = 10;
+    /** Keeps search results alive so the JIT cannot drop the timed searches. */
+    private static volatile int sink;
 
     /** Different modes that program can run. */
     /*public enum Mode {
@@ -25,9 +27,10 @@ public class PerformanceAnalysis
      * @param progName Program name.
      */
     protected static void printUsage(String progName) {
-      	System.err.println("USAGE: " + progName + " [data structure] [input file]");
-      	System.err.println("  data structure [linkedlist, sortedlinkedlist, bst, hash]");
-      	System.err.println("EXAMPLE: " + progName + " hash random.txt");
+      	System.err.println("USAGE: " + progName + " [data structure] [fix data size] [operation size] [text | binary] [latency]");
+      	System.err.println("  data structure [linkedlist, sortedlinkedlist, mtflist, transposelist, countlist, skiplist, bst, avltree, hash, openhash, offheap, trie, concurrenthash, concurrentskiplist, baltree]");
+      	System.err.println("EXAMPLE: " + progName + " hash 1000 5000 binary");
+      	System.err.println("   or: " + progName + " sweep [sweep options]  to fit how each operation scales with size, see ComplexitySweep");
     } // end of printUsage()
 
 
@@ -37,9 +40,15 @@ public class PerformanceAnalysis
      * @param args Command line arguments.
      */
     public static void main(String[] args) {
+        // sweep mode: generate its own workloads over a range of sizes instead of reading FixData files
+        if (args.length > 0 && args[0].equals("sweep")) {
+            ComplexitySweep.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         try {
             // not enough arguments
-            if (args.length != 3) {
+            if (args.length < 3 || args.length > 5) {
                 printUsage(progName);
                 System.exit(1);
             }
@@ -53,6 +62,15 @@ public class PerformanceAnalysis
             String title = "FixData" + args[1] + "_OpSize" + args[2];
             String fileName = null;
             String recordFileName = dataUsed + "_" + title + ".txt";
+            //args[3..] = binary to replay the workload files written by DataGenerator ... binary,
+            //            latency to also report per-operation percentiles, from separate replays
+            //            so the averages are still timed without a clock call per operation
+            boolean binary = false;
+            boolean latency = false;
+            for (int k = 3; k < args.length; k++) {
+            	binary |= args[k].equals("binary");
+            	latency |= args[k].equals("latency");
+            }
             String[] dataOrder = {"random", "order", "reverse"}; 
             int testingCases = 11;
             
@@ -75,12 +93,42 @@ public class PerformanceAnalysis
 					case "sortedlinkedlist":
 						implementType = new SortedLinkedListMultiset<String>();
 						break;
+					case "mtflist":
+						implementType = new SelfOrganizingListMultiset<String>(SelfOrganizingListMultiset.MOVE_TO_FRONT);
+						break;
+					case "transposelist":
+						implementType = new SelfOrganizingListMultiset<String>(SelfOrganizingListMultiset.TRANSPOSE);
+						break;
+					case "countlist":
+						implementType = new SelfOrganizingListMultiset<String>(SelfOrganizingListMultiset.COUNT);
+						break;
+					case "skiplist":
+						implementType = new SkipListMultiset<String>();
+						break;
 					case "bst":
 						implementType = new BstMultiset<String>();
 						break;
+					case "avltree":
+						implementType = new AvlTreeMultiset<String>();
+						break;
 					case "hash":
 						implementType = new HashMultiset<String>();
 						break;
+					case "openhash":
+						implementType = new OpenHashMultiset<String>();
+						break;
+					case "offheap":
+						implementType = new OffHeapStringMultiset();
+						break;
+					case "trie":
+						implementType = new TrieMultiset();
+						break;
+					case "concurrenthash":
+						implementType = new ConcurrentHashMultiset<String>();
+						break;
+					case "concurrentskiplist":
+						implementType = new ConcurrentSkipListMultiset<String>();
+						break;
 					case "baltree":
 						implementType = new BalTreeMultiset<String>();
 						break;
@@ -90,14 +138,22 @@ public class PerformanceAnalysis
 	                    System.exit(1);
 	            }
 	            
-            	for(int j=1 ; j<=testingCases ; j++)
-                {    	            
-            		fileName = title + "_Test" + Integer.toString(j) + "_" + dataOrder[i] + ".txt";
+            	// every testing case with uniform keys, then with each skewed key distribution
+            	for(int t=0 ; t<testingCases * DataGenerator.DISTRIBUTIONS.length ; t++)
+                {
+            		int j = t % testingCases + 1;
+            		String distribution = DataGenerator.DISTRIBUTIONS[t / testingCases];
+            		fileName = title + "_Test" + Integer.toString(j) + "_" + dataOrder[i] + distribution + (binary ? Workload.EXTENSION : ".txt");
+            		// skewed sets are only there if DataGenerator wrote them
+            		if (!distribution.isEmpty() && !new File(fileName).exists()) {
+            			continue;
+            		}
             		
             		try {
-            			FileReader in = new FileReader(new File(fileName));
-            		    BufferedReader inReader = new BufferedReader(in);
-            			PrintWriter searchOutWriter = new PrintWriter(System.out, true);
+            			// parse once up front, so every experiment replays the whole file
+            			// and only the multiset calls are timed
+            			Workload workload = Workload.load(fileName);
+            			LatencyHistogram[] latencies = latency ? LatencyHistogram.forOperations() : null;
             			
             			int curExp = 0;
             			while (curExp < EXP_NUMBER)
@@ -105,13 +161,13 @@ public class PerformanceAnalysis
             				startTime = System.nanoTime();
                 			// do the experiment (depends on text file)
                 			// process the operations
-                			MultisetTester.processOperations(inReader, searchOutWriter, implementType);
+                			sink += workload.replay(implementType, null);
                 			endTime = System.nanoTime();
                 			
                 			timeElapsed = (endTime - startTime) / Math.pow(10, 9);
                 			recordList[curExp] = timeElapsed;
-                			filehOutWriter.println(String.format("Time elapsed (secs): %.10f", timeElapsed));
-                            System.out.printf("Time elapsed (secs): %.10f\n", timeElapsed);
+                			filehOutWriter.println(String.format("Time elapsed (secs): %.10f (%s)", timeElapsed, workload.rate(endTime - startTime)));
+                            System.out.printf("Time elapsed (secs): %.10f (%s)\n", timeElapsed, workload.rate(endTime - startTime));
                 			curExp++;
             			}
             			
@@ -127,9 +183,18 @@ public class PerformanceAnalysis
             			
             			double average = sum / EXP_NUMBER ;
             			filehOutWriter.println("DataStructure:" + dataUsed + " Testing file: " + fileName);
-            			filehOutWriter.println(String.format("Average time performance (secs): %.10f\n", average));
+            			String averageRate = workload.rate((long) (average * 1e9));
+            			filehOutWriter.println(String.format("Average time performance (secs): %.10f (%s)\n", average, averageRate));
             			System.out.println("DataStructure:" + dataUsed + " Testing file: " + fileName);
-            			System.out.printf("Average time performance (secs): %.10f\n", average);
+            			System.out.printf("Average time performance (secs): %.10f (%s)\n", average, averageRate);
+            			if (latencies != null) {
+            				// untimed replays, one at a time, each operation timed on its own
+            				for (int e = 0; e < EXP_NUMBER; e++) {
+            					sink += workload.replay(implementType, null, latencies);
+            				}
+            				LatencyHistogram.printReport(dataUsed, latencies, System.out);
+            				System.out.println();
+            			}
             		} 
             		catch (IOException e) {
             			System.err.println(e.getMessage());
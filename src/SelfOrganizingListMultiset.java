@@ -0,0 +1,253 @@
+import java.util.*;
+
+/**
+ * Doubly linked list multiset that reorders itself as it is used, so the
+ * elements accessed most often migrate toward the head and are found by a
+ * shorter scan.  Useful for skewed workloads, where a few elements take most
+ * of the operations.
+ *
+ * Policies, applied whenever an add, search or removeOne finds an element:
+ * - MOVE_TO_FRONT moves it to the head; new elements also go to the head.
+ * - TRANSPOSE swaps it with its predecessor.
+ * - COUNT keeps the list ordered by how often each element has been
+ *   accessed, most accessed first.
+ * TRANSPOSE and COUNT append new elements at the tail.
+ *
+ * @param T Type of elements that the multiset can hold.
+ */
+public class SelfOrganizingListMultiset<T extends Comparable<T>> extends Multiset<T> implements Instrumentable
+{
+	public static final int MOVE_TO_FRONT = 0;
+	public static final int TRANSPOSE = 1;
+	public static final int COUNT = 2;
+
+	/** Reference to head of list. */
+	protected Node<T> mHead;
+	/** Reference to tail of list. */
+	protected Node<T> mTail;
+	/** How the list reorders after an access, one of MOVE_TO_FRONT, TRANSPOSE or COUNT. */
+	protected int mPolicy;
+	/** Cost counters, null unless instrumented. */
+	protected CostCounters mCounters;
+
+
+	public SelfOrganizingListMultiset(int policy) {
+		if (policy < MOVE_TO_FRONT || policy > COUNT) {
+			throw new IllegalArgumentException("Unknown policy " + policy);
+		}
+		mHead = null;
+		mTail = null;
+		mPolicy = policy;
+	} // end of SelfOrganizingListMultiset()
+
+
+	public void add(T item) {
+		Node<T> currNode = find(item);
+		if (currNode != null) {
+			currNode.mNumber++;
+			reorganise(currNode);
+			return;
+		}
+
+		Node<T> newNode = createNode(item);
+		if (mPolicy == MOVE_TO_FRONT) {
+			linkBefore(newNode, mHead);
+		}
+		else {
+			linkBefore(newNode, null);
+		}
+	} // end of add()
+
+
+	public int search(T item) {
+		Node<T> currNode = find(item);
+		if (currNode == null) {
+			return 0;
+		}
+		reorganise(currNode);
+		return currNode.mNumber;
+	} // end of search()
+
+
+	public void removeOne(T item) {
+		Node<T> currNode = find(item);
+		if (currNode == null) {
+			return;
+		}
+		if (currNode.mNumber == 1) {
+			unlink(currNode);
+		}
+		else {
+			currNode.mNumber--;
+			reorganise(currNode);
+		}
+	} // end of removeOne()
+
+
+	public void removeAll(T item) {
+		Node<T> currNode = find(item);
+		if (currNode != null) {
+			unlink(currNode);
+		}
+	} // end of removeAll()
+
+
+	/**
+	 * Walks the list from head to tail, so the order shows how the policy
+	 * has arranged it.
+	 */
+	public EntryIterator<T> entryIterator() {
+		return new EntryIterator<T>() {
+			private Node<T> nextNode = mHead;
+			private int found = 0;
+
+			public boolean hasNext() {
+				return nextNode != null;
+			}
+
+			public T next() {
+				if (nextNode == null) {
+					throw new NoSuchElementException();
+				}
+				T value = nextNode.mValue;
+				found = nextNode.mNumber;
+				nextNode = nextNode.mNext;
+				return value;
+			}
+
+			public int count() {
+				return found;
+			}
+		};
+	} // end of entryIterator()
+
+
+	public void setCostCounters(CostCounters counters) {
+		mCounters = counters;
+	} // end of setCostCounters()
+
+
+	/**
+	 * @return Node holding item, null if there is none.
+	 */
+	private Node<T> find(T item) {
+		Node<T> currNode = mHead;
+		while (currNode != null) {
+			if (mCounters != null) {
+				mCounters.mNodesVisited++;
+				mCounters.mComparisons++;
+			}
+			if (currNode.mValue.compareTo(item) == 0) {
+				return currNode;
+			}
+			currNode = currNode.mNext;
+		}
+		return null;
+	} // end of find()
+
+
+	/**
+	 * Moves currNode toward the head as the policy says, after an access.
+	 */
+	private void reorganise(Node<T> currNode) {
+		currNode.mAccesses++;
+		Node<T> target = currNode.mPrev;
+		switch (mPolicy) {
+			case MOVE_TO_FRONT:
+				target = mHead;
+				break;
+			case TRANSPOSE:
+				break;
+			case COUNT:
+				// pass every predecessor accessed less often
+				if (target == null || target.mAccesses >= currNode.mAccesses) {
+					return;
+				}
+				while (target.mPrev != null && target.mPrev.mAccesses < currNode.mAccesses) {
+					target = target.mPrev;
+				}
+				break;
+			default:
+				break;
+		}
+		if (target == null || target == currNode) {
+			return;
+		}
+		if (mCounters != null) {
+			mCounters.mRestructures++;
+		}
+		unlink(currNode);
+		linkBefore(currNode, target);
+	} // end of reorganise()
+
+
+	/**
+	 * Links node in before next, or at the tail if next is null.
+	 */
+	private void linkBefore(Node<T> node, Node<T> next) {
+		Node<T> prev = next == null ? mTail : next.mPrev;
+		node.mPrev = prev;
+		node.mNext = next;
+		if (prev == null) {
+			mHead = node;
+		}
+		else {
+			prev.mNext = node;
+		}
+		if (next == null) {
+			mTail = node;
+		}
+		else {
+			next.mPrev = node;
+		}
+	} // end of linkBefore()
+
+
+	private void unlink(Node<T> node) {
+		if (node.mPrev == null) {
+			mHead = node.mNext;
+		}
+		else {
+			node.mPrev.mNext = node.mNext;
+		}
+		if (node.mNext == null) {
+			mTail = node.mPrev;
+		}
+		else {
+			node.mNext.mPrev = node.mPrev;
+		}
+	} // end of unlink()
+
+
+	private Node<T> createNode(T value) {
+		if (mCounters != null) {
+			mCounters.mAllocations++;
+		}
+		return new Node<T>(value);
+	} // end of createNode()
+
+
+	/**
+	 * Node type, inner private class.
+	 */
+	private static class Node<T>
+	{
+		/** Stored value of node. */
+		private T mValue;
+		/** Reference to next node. */
+		private Node<T> mNext;
+		/** Reference to previous node. */
+		private Node<T> mPrev;
+		/** Instances of the value. */
+		private int mNumber;
+		/** Accesses since the value was added, orders the list under COUNT. */
+		private int mAccesses;
+
+		public Node(T value) {
+			mValue = value;
+			mNumber = 1;
+			mAccesses = 1;
+		}
+	} // end of inner class Node
+
+} // end of class SelfOrganizingListMultiset
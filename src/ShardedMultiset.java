@@ -0,0 +1,380 @@
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Multiset that partitions its elements by hash across several inner
+ * multisets, so bulk operations can use more than one core.
+ *
+ * Scalar operations go straight to the element's shard on the calling
+ * thread.  A bulk operation is split into one batch per shard, and the
+ * batches run in parallel on a ForkJoinPool through each shard's own bulk
+ * operation.  The shards never share an element, so they need no locking,
+ * but like the other multisets this one must be used from one thread at a
+ * time.
+ *
+ * If the shards are sorted, entryIterator(), and so print(), merges them
+ * into one ascending sequence; otherwise it concatenates them.
+ *
+ * @param T Type of elements that the multiset can hold.
+ */
+public class ShardedMultiset<T> extends Multiset<T>
+{
+	/** Batches smaller than this run on the calling thread. */
+	protected static final int PARALLEL_THRESHOLD = 1024;
+
+	protected Multiset<T>[] mShards;
+	protected ForkJoinPool mPool;
+
+
+	/**
+	 * Shards on the common ForkJoinPool.
+	 */
+	public ShardedMultiset(int shardNum, Supplier<? extends Multiset<T>> factory) {
+		this(shardNum, factory, ForkJoinPool.commonPool());
+	} // end of ShardedMultiset()
+
+
+	/**
+	 * @param shardNum Number of inner multisets, at least 1.
+	 * @param factory Creates each empty inner multiset, all of the same type.
+	 * @param pool Runs the per-shard batches of bulk operations.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public ShardedMultiset(int shardNum, Supplier<? extends Multiset<T>> factory, ForkJoinPool pool) {
+		if (shardNum < 1) {
+			throw new IllegalArgumentException("Number of shards must be positive.");
+		}
+		mShards = new Multiset[shardNum];
+		for (int i = 0; i < shardNum; i++) {
+			mShards[i] = factory.get();
+		}
+		mPool = pool;
+	} // end of ShardedMultiset()
+
+
+	public void add(T item) {
+		shardOf(item).add(item);
+	} // end of add()
+
+
+	public int search(T item) {
+		return shardOf(item).search(item);
+	} // end of search()
+
+
+	public void removeOne(T item) {
+		shardOf(item).removeOne(item);
+	} // end of removeOne()
+
+
+	public void removeAll(T item) {
+		shardOf(item).removeAll(item);
+	} // end of removeAll()
+
+
+	/**
+	 * Adds each shard's part of items through the shard's addAll(), in parallel.
+	 */
+	public void addAll(Collection<? extends T> items) {
+		final List<List<T>> parts = partition(items);
+		runPerShard(items.size(), new ShardTask() {
+			public void run(int shard) {
+				if (!parts.get(shard).isEmpty()) {
+					mShards[shard].addAll(parts.get(shard));
+				}
+			}
+		});
+	} // end of addAll()
+
+
+	/**
+	 * Searches each shard for its part of items through the shard's
+	 * searchAll(), in parallel, and puts the counts back in item order.
+	 */
+	@SuppressWarnings("unchecked")
+	public int[] searchAll(final T[] items) {
+		final int[] counts = new int[items.length];
+		final int[][] indexes = new int[mShards.length][];
+		int[] sizes = new int[mShards.length];
+		int[] shardOf = new int[items.length];
+		for (int i = 0; i < items.length; i++) {
+			shardOf[i] = shardIndex(items[i]);
+			sizes[shardOf[i]]++;
+		}
+		for (int s = 0; s < mShards.length; s++) {
+			indexes[s] = new int[sizes[s]];
+			sizes[s] = 0;
+		}
+		for (int i = 0; i < items.length; i++) {
+			indexes[shardOf[i]][sizes[shardOf[i]]++] = i;
+		}
+
+		runPerShard(items.length, new ShardTask() {
+			public void run(int shard) {
+				int[] index = indexes[shard];
+				if (index.length == 0) {
+					return;
+				}
+				T[] part = (T[]) Array.newInstance(items.getClass().getComponentType(), index.length);
+				for (int k = 0; k < index.length; k++) {
+					part[k] = items[index[k]];
+				}
+				int[] found = mShards[shard].searchAll(part);
+				for (int k = 0; k < index.length; k++) {
+					counts[index[k]] = found[k];
+				}
+			}
+		});
+		return counts;
+	} // end of searchAll()
+
+
+	/**
+	 * Removes each shard's part of items through the shard's removeAll(), in parallel.
+	 */
+	public void removeAll(Collection<? extends T> items) {
+		final List<List<T>> parts = partition(items);
+		runPerShard(items.size(), new ShardTask() {
+			public void run(int shard) {
+				if (!parts.get(shard).isEmpty()) {
+					mShards[shard].removeAll(parts.get(shard));
+				}
+			}
+		});
+	} // end of removeAll()
+
+
+	/**
+	 * Splits the entries among the shards, keeping their order, and restores
+	 * every shard in parallel, so sorted shards still build in O(n).
+	 */
+	protected void restoreEntries(SortedEntries<T> entries, final boolean sorted) {
+		final List<SortedEntries<T>> parts = new ArrayList<SortedEntries<T>>(mShards.length);
+		for (int s = 0; s < mShards.length; s++) {
+			parts.add(new SortedEntries<T>(entries.size() / mShards.length + 1));
+		}
+		for (int i = 0; i < entries.size(); i++) {
+			parts.get(shardIndex(entries.key(i))).append(entries.key(i), entries.count(i));
+		}
+		runPerShard(entries.size(), new ShardTask() {
+			public void run(int shard) {
+				mShards[shard].restoreEntries(parts.get(shard), sorted);
+			}
+		});
+	} // end of restoreEntries()
+
+
+	/**
+	 * @return True if every shard is sorted, so entryIterator() merges them.
+	 */
+	public boolean isSorted() {
+		for (Multiset<T> shard : mShards) {
+			if (!shard.isSorted()) {
+				return false;
+			}
+		}
+		return true;
+	} // end of isSorted()
+
+
+	/**
+	 * Merges the shards in ascending order if they are sorted, otherwise
+	 * walks them one after another.
+	 */
+	public EntryIterator<T> entryIterator() {
+		if (isSorted()) {
+			return new MergeIterator();
+		}
+		return new EntryIterator<T>() {
+			private int mShard = 0;
+			private EntryIterator<T> mCurrent = mShards[0].entryIterator();
+
+			public boolean hasNext() {
+				while (!mCurrent.hasNext() && mShard + 1 < mShards.length) {
+					mCurrent = mShards[++mShard].entryIterator();
+				}
+				return mCurrent.hasNext();
+			}
+
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return mCurrent.next();
+			}
+
+			public int count() {
+				return mCurrent.count();
+			}
+		};
+	} // end of entryIterator()
+
+
+	/**
+	 * @return Number of shards.
+	 */
+	public int shardNum() {
+		return mShards.length;
+	} // end of shardNum()
+
+
+	/**
+	 * Fibonacci hashing of hashCode(), taking the high bits of the product so
+	 * the shard does not correlate with the low bits the inner hash tables use.
+	 */
+	protected int shardIndex(Object item) {
+		long mixed = (item.hashCode() * 0x9E3779B9) & 0xFFFFFFFFL;
+		return (int) ((mixed * mShards.length) >>> 32);
+	} // end of shardIndex()
+
+
+	private Multiset<T> shardOf(T item) {
+		return mShards[shardIndex(item)];
+	} // end of shardOf()
+
+
+	/**
+	 * @return Elements of items for each shard, in their order in items.
+	 */
+	private List<List<T>> partition(Collection<? extends T> items) {
+		List<List<T>> parts = new ArrayList<List<T>>(mShards.length);
+		for (int s = 0; s < mShards.length; s++) {
+			parts.add(new ArrayList<T>(items.size() / mShards.length + 1));
+		}
+		for (T item : items) {
+			parts.get(shardIndex(item)).add(item);
+		}
+		return parts;
+	} // end of partition()
+
+
+	/**
+	 * Work on one shard, run by runPerShard().
+	 */
+	private interface ShardTask
+	{
+		void run(int shard);
+	} // end of interface ShardTask
+
+
+	/**
+	 * Runs task for every shard, on the pool if the batch is large enough to
+	 * pay for the hand-off, and waits for all of them.
+	 *
+	 * @param batchSize Number of elements the tasks handle between them.
+	 */
+	private void runPerShard(int batchSize, final ShardTask task) {
+		if (mShards.length == 1 || batchSize < PARALLEL_THRESHOLD) {
+			for (int s = 0; s < mShards.length; s++) {
+				task.run(s);
+			}
+			return;
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(mShards.length);
+		for (int s = 0; s < mShards.length; s++) {
+			final int shard = s;
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					task.run(shard);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> future : mPool.invokeAll(tasks)) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while waiting for the shards.");
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	} // end of runPerShard()
+
+
+	/**
+	 * K-way merge of sorted shards: a heap holds the next element of each
+	 * shard, keyed by natural ordering.  Each element lives in exactly one
+	 * shard, so there are no duplicates to combine.
+	 */
+	private class MergeIterator implements EntryIterator<T>
+	{
+		/** Shard cursors, ordered by the element each is positioned on. */
+		private final PriorityQueue<Cursor> mHeap;
+		private int mCount = 0;
+
+		MergeIterator() {
+			mHeap = new PriorityQueue<Cursor>(mShards.length, new Comparator<Cursor>() {
+				@SuppressWarnings("unchecked")
+				public int compare(Cursor a, Cursor b) {
+					return ((Comparable<Object>) a.mKey).compareTo(b.mKey);
+				}
+			});
+			for (Multiset<T> shard : mShards) {
+				Cursor cursor = new Cursor(shard.entryIterator());
+				if (cursor.advance()) {
+					mHeap.add(cursor);
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			return !mHeap.isEmpty();
+		}
+
+		public T next() {
+			Cursor cursor = mHeap.poll();
+			if (cursor == null) {
+				throw new NoSuchElementException();
+			}
+			T key = cursor.mKey;
+			mCount = cursor.mCount;
+			if (cursor.advance()) {
+				mHeap.add(cursor);
+			}
+			return key;
+		}
+
+		public int count() {
+			return mCount;
+		}
+	} // end of inner class MergeIterator
+
+
+	/**
+	 * One shard's iterator and the entry it is positioned on.
+	 */
+	private class Cursor
+	{
+		private final EntryIterator<T> mIt;
+		private T mKey;
+		private int mCount;
+
+		Cursor(EntryIterator<T> it) {
+			mIt = it;
+		}
+
+		/**
+		 * @return False if the shard has no more entries.
+		 */
+		boolean advance() {
+			if (!mIt.hasNext()) {
+				return false;
+			}
+			mKey = mIt.next();
+			mCount = mIt.count();
+			return true;
+		}
+	} // end of inner class Cursor
+
+} // end of class ShardedMultiset
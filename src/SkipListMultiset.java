@@ -0,0 +1,290 @@
+/**Implement Skip List
+ *
+ * Sorted multiset with expected O(log n) add, search and remove, replacing
+ * the head-to-tail walk of SortedLinkedListMultiset.  print keeps the same
+ * ascending order.
+ *
+ * Node levels are drawn from a seedable random generator, so two runs with
+ * the same seed build identical towers and benchmark numbers are reproducible.
+ * Each node allocates its forward references as a single array sized to its
+ * own level rather than the list maximum.
+ */
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+
+public class SkipListMultiset<T extends Comparable<T>> extends Multiset<T> implements Instrumentable
+{
+	/** Maximum number of levels, enough for 2^32 keys at p = 1/2. */
+	private static final int MAX_LEVEL = 32;
+	/** Seed used when none is given. */
+	public static final long DEFAULT_SEED = 0x5EEDL;
+
+	/** Sentinel head node, present at every level. */
+	protected Node<T> mHead;
+	/** Highest level currently in use. */
+	protected int mLevel;
+	/** Random generator for node levels. */
+	protected Random mRandGen;
+	/** Scratch array of predecessors, reused between operations. */
+	private Node<T>[] mUpdate;
+	/** Cost counters, null unless instrumented. */
+	protected CostCounters mCounters;
+
+	public SkipListMultiset() {
+		this(DEFAULT_SEED);
+	} // end of SkipListMultiset()
+
+	/**
+	 * @param seed Seed for the level generator.
+	 */
+	public SkipListMultiset(long seed) {
+		mHead = new Node<T>(null, MAX_LEVEL);
+		mLevel = 1;
+		mRandGen = new Random(seed);
+		mUpdate = Node.newArray(MAX_LEVEL);
+	} // end of SkipListMultiset()
+
+	public void add(T item) {
+		Node<T> node = findPredecessors(item, false);
+		if (node != null) {
+			node.mNumber++;
+		}
+		else {
+			insert(item);
+		}
+	} // end of add()
+
+	/**
+	 * Inserts item, which must be absent, after the nodes located by the last
+	 * findPredecessors().
+	 */
+	private void insert(T item) {
+		int level = randomLevel();
+		if (level > mLevel) {
+			for (int i = mLevel; i < level; i++) {
+				mUpdate[i] = mHead;
+			}
+			mLevel = level;
+		}
+
+		if (mCounters != null) {
+			mCounters.mAllocations++;
+		}
+		Node<T> newNode = new Node<T>(item, level);
+		for (int i = 0; i < level; i++) {
+			newNode.mNext[i] = mUpdate[i].mNext[i];
+			mUpdate[i].mNext[i] = newNode;
+		}
+	} // end of insert()
+
+	public int search(T item) {
+		Node<T> currNode = mHead;
+		for (int i = mLevel - 1; i >= 0; i--) {
+			Node<T> next = visit(currNode.mNext[i]);
+			while (next != null) {
+				int cmp = compare(next.mValue, item);
+				if (cmp == 0) {
+					return next.mNumber;
+				}
+				else if (cmp > 0) {
+					break;
+				}
+				currNode = next;
+				next = visit(currNode.mNext[i]);
+			}
+		}
+		return 0;
+	} // end of search()
+
+	public void removeOne(T item) {
+		Node<T> node = findPredecessors(item, false);
+		if (node != null) {
+			if (node.mNumber == 1) {
+				unlink(node);
+			}
+			else {
+				node.mNumber--;
+			}
+		}
+	} // end of removeOne()
+
+	public void removeAll(T item) {
+		Node<T> node = findPredecessors(item, false);
+		if (node != null) {
+			unlink(node);
+		}
+	} // end of removeAll()
+
+	/**
+	 * Sorts the batch and inserts it in ascending order, starting each search
+	 * from the previous element's predecessors rather than the head.
+	 */
+	@SuppressWarnings("unchecked")
+	public void addAll(Collection<? extends T> items) {
+		resetFinger();
+		for (Object o : SortedEntries.sortedArray(items)) {
+			T item = (T) o;
+			Node<T> node = findPredecessors(item, true);
+			if (node != null) {
+				node.mNumber++;
+			}
+			else {
+				insert(item);
+			}
+		}
+	} // end of addAll()
+
+	/**
+	 * Sorted batch removal with the same finger search as addAll().
+	 */
+	@SuppressWarnings("unchecked")
+	public void removeAll(Collection<? extends T> items) {
+		resetFinger();
+		for (Object o : SortedEntries.sortedArray(items)) {
+			Node<T> node = findPredecessors((T) o, true);
+			if (node != null) {
+				unlink(node);
+			}
+		}
+	} // end of removeAll()
+
+	public boolean isSorted() {
+		return true;
+	} // end of isSorted()
+
+	/**
+	 * Walks the bottom level, which holds every node in ascending order.
+	 */
+	public EntryIterator<T> entryIterator() {
+		return new EntryIterator<T>() {
+			private Node<T> mNextNode = mHead.mNext[0];
+			private int mNumber = 0;
+
+			public boolean hasNext() {
+				return mNextNode != null;
+			}
+
+			public T next() {
+				if (mNextNode == null) {
+					throw new NoSuchElementException();
+				}
+				T value = mNextNode.mValue;
+				mNumber = mNextNode.mNumber;
+				mNextNode = mNextNode.mNext[0];
+				return value;
+			}
+
+			public int count() {
+				return mNumber;
+			}
+		};
+	} // end of entryIterator()
+
+	/**
+	 * Fills mUpdate with the last node before item on every level in use.
+	 *
+	 * @param finger If true, mUpdate still holds the predecessors of an element
+	 *        not greater than item, and each level resumes from there when that
+	 *        is further along than the node reached from above.
+	 * @return Node holding item, or null if item is not in the list.
+	 */
+	private Node<T> findPredecessors(T item, boolean finger) {
+		Node<T> currNode = mHead;
+		for (int i = mLevel - 1; i >= 0; i--) {
+			Node<T> start = mUpdate[i];
+			if (finger && start != mHead
+					&& (currNode == mHead || compare(currNode.mValue, start.mValue) < 0)) {
+				currNode = start;
+			}
+			Node<T> next = visit(currNode.mNext[i]);
+			while (next != null && compare(next.mValue, item) < 0) {
+				currNode = next;
+				next = visit(currNode.mNext[i]);
+			}
+			mUpdate[i] = currNode;
+		}
+
+		Node<T> candidate = currNode.mNext[0];
+		if (candidate != null && compare(candidate.mValue, item) == 0) {
+			return candidate;
+		}
+		return null;
+	} // end of findPredecessors()
+
+	public void setCostCounters(CostCounters counters) {
+		mCounters = counters;
+	} // end of setCostCounters()
+
+	private int compare(T value, T item) {
+		if (mCounters != null) {
+			mCounters.mComparisons++;
+		}
+		return value.compareTo(item);
+	} // end of compare()
+
+	/**
+	 * Counts a visit to node, if there is one, before it is examined.
+	 */
+	private Node<T> visit(Node<T> node) {
+		if (node != null && mCounters != null) {
+			mCounters.mNodesVisited++;
+		}
+		return node;
+	} // end of visit()
+
+	private void resetFinger() {
+		for (int i = 0; i < MAX_LEVEL; i++) {
+			mUpdate[i] = mHead;
+		}
+	} // end of resetFinger()
+
+	/**
+	 * Unlinks node, which must be the one located by the last findPredecessors().
+	 */
+	private void unlink(Node<T> node) {
+		for (int i = 0; i < node.mNext.length; i++) {
+			mUpdate[i].mNext[i] = node.mNext[i];
+		}
+		while (mLevel > 1 && mHead.mNext[mLevel - 1] == null) {
+			mLevel--;
+		}
+	} // end of unlink()
+
+	/**
+	 * Geometric level with p = 1/2, one random int per node.
+	 */
+	private int randomLevel() {
+		int level = 1 + Integer.numberOfTrailingZeros(mRandGen.nextInt());
+		return Math.min(level, MAX_LEVEL);
+	} // end of randomLevel()
+
+	/**
+	 * Node type, inner private class.
+	 */
+	private static class Node<T>
+	{
+		/** Stored value of node. */
+		private T mValue;
+		/** Stored number of the same value. */
+		private int mNumber;
+		/** Forward references, one per level of this node. */
+		private final Node<T>[] mNext;
+
+		public Node(T value, int level) {
+			mValue = value;
+			mNumber = 1;
+			mNext = newArray(level);
+		}
+
+		/**
+		 * @return Array of length null node references.
+		 */
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		static <T> Node<T>[] newArray(int length) {
+			return (Node<T>[]) new Node[length];
+		}
+	} // end of inner class Node
+
+} // end of class SkipListMultiset
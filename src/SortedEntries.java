@@ -0,0 +1,299 @@
+import java.util.*;
+
+/**
+ * Growable pair of parallel arrays holding distinct elements in ascending
+ * order with their number of instances.
+ *
+ * Used by the sorted multisets for bulk operations: the current contents are
+ * dumped in order, merged with a sorted batch in one linear pass, and the
+ * structure is rebuilt from the result in O(n).  asSortedMap() lets TreeMap
+ * do the same through its linear-time copy constructor.
+ *
+ * @param T Type of elements, compared by their natural ordering.
+ */
+public class SortedEntries<T>
+{
+	/** Elements, ascending and distinct. */
+	protected Object[] mKeys;
+	/** Number of instances of the element at the same index. */
+	protected int[] mCounts;
+	/** Number of entries in use. */
+	protected int mSize;
+
+
+	/**
+	 * @param capacity Number of entries to reserve space for.
+	 */
+	public SortedEntries(int capacity) {
+		capacity = Math.max(capacity, 1);
+		mKeys = new Object[capacity];
+		mCounts = new int[capacity];
+		mSize = 0;
+	} // end of SortedEntries()
+
+
+	/**
+	 * Appends an entry, key must be greater than every key already present.
+	 */
+	public void append(T key, int count) {
+		if (mSize == mKeys.length) {
+			mKeys = Arrays.copyOf(mKeys, mSize * 2);
+			mCounts = Arrays.copyOf(mCounts, mSize * 2);
+		}
+		mKeys[mSize] = key;
+		mCounts[mSize] = count;
+		mSize++;
+	} // end of append()
+
+
+	public int size() {
+		return mSize;
+	} // end of size()
+
+
+	@SuppressWarnings("unchecked")
+	public T key(int index) {
+		return (T) mKeys[index];
+	} // end of key()
+
+
+	public int count(int index) {
+		return mCounts[index];
+	} // end of count()
+
+
+	/**
+	 * @return Cursor over the entries in index order.
+	 */
+	public Multiset.EntryIterator<T> entryIterator() {
+		return new Multiset.EntryIterator<T>() {
+			private int mNext = 0;
+
+			public boolean hasNext() {
+				return mNext < mSize;
+			}
+
+			public T next() {
+				if (mNext >= mSize) {
+					throw new NoSuchElementException();
+				}
+				return key(mNext++);
+			}
+
+			public int count() {
+				return mCounts[mNext - 1];
+			}
+		};
+	} // end of entryIterator()
+
+
+	/**
+	 * @return Elements of items in ascending order, duplicates kept.
+	 */
+	public static Object[] sortedArray(Collection<?> items) {
+		Object[] batch = items.toArray();
+		Arrays.sort(batch);
+		return batch;
+	} // end of sortedArray()
+
+
+	/**
+	 * Merges a sorted batch of added elements into these entries.
+	 *
+	 * @param sortedBatch Elements to add, ascending, duplicates allowed.
+	 * @return New entries holding the union with counts summed.
+	 */
+	public SortedEntries<T> mergeAdd(Object[] sortedBatch) {
+		SortedEntries<T> merged = new SortedEntries<T>(mSize + sortedBatch.length);
+		int i = 0;
+		int j = 0;
+
+		while (i < mSize || j < sortedBatch.length) {
+			int cmp;
+			if (i == mSize) {
+				cmp = 1;
+			}
+			else if (j == sortedBatch.length) {
+				cmp = -1;
+			}
+			else {
+				cmp = compare(mKeys[i], sortedBatch[j]);
+			}
+
+			if (cmp < 0) {
+				merged.append(key(i), mCounts[i]);
+				i++;
+			}
+			else {
+				// take the batch run of equal elements in one go
+				Object key = sortedBatch[j];
+				int run = 0;
+				while (j < sortedBatch.length && compare(sortedBatch[j], key) == 0) {
+					run++;
+					j++;
+				}
+				if (cmp == 0) {
+					merged.append(key(i), mCounts[i] + run);
+					i++;
+				}
+				else {
+					@SuppressWarnings("unchecked")
+					T newKey = (T) key;
+					merged.append(newKey, run);
+				}
+			}
+		}
+		return merged;
+	} // end of mergeAdd()
+
+
+	/**
+	 * Drops every entry whose element appears in a sorted batch.
+	 *
+	 * @param sortedBatch Elements to remove entirely, ascending.
+	 * @return New entries without those elements.
+	 */
+	public SortedEntries<T> mergeRemove(Object[] sortedBatch) {
+		SortedEntries<T> merged = new SortedEntries<T>(mSize);
+		int j = 0;
+
+		for (int i = 0; i < mSize; i++) {
+			while (j < sortedBatch.length && compare(sortedBatch[j], mKeys[i]) < 0) {
+				j++;
+			}
+			if (j == sortedBatch.length || compare(sortedBatch[j], mKeys[i]) != 0) {
+				merged.append(key(i), mCounts[i]);
+			}
+		}
+		return merged;
+	} // end of mergeRemove()
+
+
+	/**
+	 * @return Read-only SortedMap view of the entries.  TreeMap(SortedMap)
+	 *         builds its red-black tree from it in O(n); lookups and range
+	 *         views binary search the key array.
+	 */
+	public SortedMap<T, Integer> asSortedMap() {
+		return new SortedView(0, mSize);
+	} // end of asSortedMap()
+
+
+	@SuppressWarnings("unchecked")
+	private static int compare(Object a, Object b) {
+		return ((Comparable<Object>) a).compareTo(b);
+	} // end of compare()
+
+
+	/**
+	 * @return First index in [from, to) whose key is not less than key, to if there is none.
+	 */
+	private int lowerBound(Object key, int from, int to) {
+		int low = from;
+		int high = to;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(mKeys[mid], key) < 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	} // end of lowerBound()
+
+	/**
+	 * Read-only SortedMap over the entries with index in [mFrom, mTo).
+	 * Range views narrow the index bounds; a bound outside the view's range
+	 * is clamped to it.
+	 */
+	private class SortedView extends AbstractMap<T, Integer> implements SortedMap<T, Integer>
+	{
+		private final int mFrom;
+		private final int mTo;
+
+		SortedView(int from, int to) {
+			mFrom = from;
+			mTo = to;
+		}
+
+		public int size() {
+			return mTo - mFrom;
+		}
+
+		public Comparator<? super T> comparator() {
+			return null;
+		}
+
+		public Integer get(Object key) {
+			int index = lowerBound(key, mFrom, mTo);
+			if (index < mTo && compare(mKeys[index], key) == 0) {
+				return mCounts[index];
+			}
+			return null;
+		}
+
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		public Set<Map.Entry<T, Integer>> entrySet() {
+			return new AbstractSet<Map.Entry<T, Integer>>() {
+				public int size() {
+					return mTo - mFrom;
+				}
+
+				public Iterator<Map.Entry<T, Integer>> iterator() {
+					return new Iterator<Map.Entry<T, Integer>>() {
+						private int mNext = mFrom;
+
+						public boolean hasNext() {
+							return mNext < mTo;
+						}
+
+						public Map.Entry<T, Integer> next() {
+							if (mNext >= mTo) {
+								throw new NoSuchElementException();
+							}
+							Map.Entry<T, Integer> entry = new AbstractMap.SimpleImmutableEntry<T, Integer>(key(mNext), mCounts[mNext]);
+							mNext++;
+							return entry;
+						}
+					};
+				}
+			};
+		}
+
+		public T firstKey() {
+			if (mFrom == mTo) {
+				throw new NoSuchElementException();
+			}
+			return key(mFrom);
+		}
+
+		public T lastKey() {
+			if (mFrom == mTo) {
+				throw new NoSuchElementException();
+			}
+			return key(mTo - 1);
+		}
+
+		public SortedMap<T, Integer> subMap(T fromKey, T toKey) {
+			if (compare(fromKey, toKey) > 0) {
+				throw new IllegalArgumentException("fromKey > toKey");
+			}
+			int from = lowerBound(fromKey, mFrom, mTo);
+			return new SortedView(from, lowerBound(toKey, from, mTo));
+		}
+
+		public SortedMap<T, Integer> headMap(T toKey) {
+			return new SortedView(mFrom, lowerBound(toKey, mFrom, mTo));
+		}
+
+		public SortedMap<T, Integer> tailMap(T fromKey) {
+			return new SortedView(lowerBound(fromKey, mFrom, mTo), mTo);
+		}
+	} // end of inner class SortedView
+
+} // end of class SortedEntries
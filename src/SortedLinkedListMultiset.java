@@ -9,11 +9,10 @@
  * 
  * Author : LosoLai(s3579161)
  */
-import java.io.PrintStream;
 import java.util.*;
 
 
-public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<T>
+public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<T> implements Instrumentable
 {
 	/** Reference to head of list. */
     protected Node<T> mHead;
@@ -21,6 +20,8 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
     protected Node<T> mTail;
     /** Length of list. */
     protected int mLength;
+    /** Cost counters, null unless instrumented. */
+    protected CostCounters mCounters;
     
 	public SortedLinkedListMultiset() {
 		mHead = null; 
@@ -34,7 +35,7 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
      * @param newValue Value to add to list.
      */
 	public void add(T item) {
-		Node<T> newNode = new Node<T>(item);
+		Node<T> newNode = createNode(item);
 		
 		// If head is empty, then list is empty and 
 		// head and tail references need to be initialized.
@@ -45,10 +46,10 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
         // otherwise, iterator each node 
         // find the specific index to add the node  
         else {
-        	Node<T> currNode = mHead;
+        	Node<T> currNode = visit(mHead);
             while (currNode != null) {
             	// item value is smaller than value
-            	if(currNode.getValue().compareTo(item) > 0) {
+            	if(compare(currNode.getValue(), item) > 0) {
             		if(currNode.getPrev() == null)
             		{
             			// addBefore
@@ -67,7 +68,7 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
             		}
             	}
             	// item value is grater than value
-            	else if(currNode.getValue().compareTo(item) < 0) {
+            	else if(compare(currNode.getValue(), item) < 0) {
             		if(currNode.getNext() == null)
             		{
             			// addLast
@@ -82,7 +83,7 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
             		break;
             	}
             	
-            	currNode = currNode.getNext();
+            	currNode = next(currNode);
             }  
         }
         
@@ -97,13 +98,13 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
      */
 	public int search(T item) {
 		int found = 0;
-		Node<T> currNode = mHead;
+		Node<T> currNode = visit(mHead);
 		while (currNode != null) {
-        	if (currNode.getValue().compareTo(item) == 0) {
+        	if (compare(currNode.getValue(), item) == 0) {
         		found = currNode.getFound();
         		return found;
         	}
-            currNode = currNode.getNext();
+            currNode = next(currNode);
         }
 		
 		// return the found variable
@@ -115,10 +116,10 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
 		//check the head is not empty
 		if(mHead != null)
 		{
-			Node<T> currNode = mHead;
+			Node<T> currNode = visit(mHead);
 			
 			// check if value is head node
-	        if (currNode.getValue().compareTo(item) == 0) {
+	        if (compare(currNode.getValue(), item) == 0) {
 	            // check if length of 1
 	            if (mLength == 1) {
 	                mHead = mTail= null;
@@ -138,10 +139,10 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
 	        }
 	        // search for value in rest of list
 	        else {
-	            currNode = currNode.getNext();
+	            currNode = next(currNode);
 
 	            while (currNode != null) {
-	                if (currNode.getValue().compareTo(item) == 0) {
+	                if (compare(currNode.getValue(), item) == 0) {
 	                	// check the number
 	                	if(currNode.getFound() <= 0)
 	                		break;
@@ -165,7 +166,7 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
 	                    break;
 	                }
 	                else
-	                	currNode = currNode.getNext();
+	                	currNode = next(currNode);
 	            }	
 	        }
 		}
@@ -173,10 +174,10 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
 	
 	
 	public void removeAll(T item) {
-		Node<T> currNode = mHead;
+		Node<T> currNode = visit(mHead);
 
 		// check if value is head node
-        if (currNode.getValue().compareTo(item) == 0) {
+        if (compare(currNode.getValue(), item) == 0) {
             // check if length of 1
             if (mLength == 1) {
                 mHead = mTail= null;
@@ -192,10 +193,10 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
         }
         // search for value in rest of list
         else {
-            currNode = currNode.getNext();
+            currNode = next(currNode);
 
             while (currNode != null) {
-                if (currNode.getValue().compareTo(item) == 0) {
+                if (compare(currNode.getValue(), item) == 0) {
                 	int number = currNode.getFound();
                 	mLength -= number;
                 	Node prevNode = currNode.getPrev();
@@ -211,16 +212,234 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
                     break;
                 }
                 else
-                	currNode = currNode.getNext();
+                	currNode = next(currNode);
             }	
         }
 	} // end of removeAll()
 	
 	
-	public void print(PrintStream out) {
-		out.println(toString());
-	} // end of print()
+	/**
+     * Sorts the batch and merges it into the list in a single walk, instead of
+     * one walk from the head per value.
+     * 
+     * @param items Values to add to list.
+     */
+	@SuppressWarnings("unchecked")
+	public void addAll(Collection<? extends T> items) {
+		Object[] batch = items.toArray();
+		Arrays.sort(batch);
+		
+		// currNode is the first node not smaller than the current item
+		Node<T> currNode = visit(mHead);
+		for (Object o : batch) {
+			T item = (T) o;
+			while (currNode != null && compare(currNode.getValue(), item) < 0) {
+				currNode = next(currNode);
+			}
+			
+			if (currNode != null && compare(currNode.getValue(), item) == 0) {
+				currNode.increaseFound();
+			}
+			else {
+				Node<T> newNode = createNode(item);
+				if (currNode == null) {
+					// addLast
+					newNode.setPrev(mTail);
+					if (mTail == null) {
+						mHead = newNode;
+					}
+					else {
+						mTail.setNext(newNode);
+					}
+					mTail = newNode;
+				}
+				else {
+					// addBefore
+					newNode.setPrev(currNode.getPrev());
+					newNode.setNext(currNode);
+					if (currNode.getPrev() == null) {
+						mHead = newNode;
+					}
+					else {
+						currNode.getPrev().setNext(newNode);
+					}
+					currNode.setPrev(newNode);
+				}
+				currNode = newNode;
+			}
+		}
+		
+		mLength += batch.length;
+	} // end of addAll()
 	
+	/**
+     * Visits the batch in sorted order, answering it with one walk of the list.
+     * 
+     * @param items Values to search for.
+     * @return found number of items[i] at index i.
+     */
+	public int[] searchAll(final T[] items) {
+		Integer[] order = new Integer[items.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return items[a].compareTo(items[b]);
+			}
+		});
+		
+		int[] counts = new int[items.length];
+		Node<T> currNode = visit(mHead);
+		for (int index : order) {
+			T item = items[index];
+			while (currNode != null && compare(currNode.getValue(), item) < 0) {
+				currNode = next(currNode);
+			}
+			if (currNode != null && compare(currNode.getValue(), item) == 0) {
+				counts[index] = currNode.getFound();
+			}
+		}
+		return counts;
+	} // end of searchAll()
+	
+	/**
+     * Sorts the batch and unlinks the matching nodes in a single walk.
+     * 
+     * @param items Values to remove.
+     */
+	@SuppressWarnings("unchecked")
+	public void removeAll(Collection<? extends T> items) {
+		Object[] batch = items.toArray();
+		Arrays.sort(batch);
+		
+		Node<T> currNode = visit(mHead);
+		for (Object o : batch) {
+			T item = (T) o;
+			while (currNode != null && compare(currNode.getValue(), item) < 0) {
+				currNode = next(currNode);
+			}
+			if (currNode != null && compare(currNode.getValue(), item) == 0) {
+				Node<T> nextNode = currNode.getNext();
+				mLength -= currNode.getFound();
+				if (currNode.getPrev() == null) {
+					mHead = nextNode;
+				}
+				else {
+					currNode.getPrev().setNext(nextNode);
+				}
+				if (nextNode == null) {
+					mTail = currNode.getPrev();
+				}
+				else {
+					nextNode.setPrev(currNode.getPrev());
+				}
+				currNode = visit(nextNode);
+			}
+		}
+	} // end of removeAll()
+	
+	
+	public boolean isSorted() {
+		return true;
+	} // end of isSorted()
+	
+	
+	/**
+     * Sorted entries restored into an empty list are appended in order, one
+     * node each, without scanning for their place.
+     * 
+     * @param entries Values and their number of instances.
+     * @param sorted True if the entries are in ascending order.
+     */
+	protected void restoreEntries(SortedEntries<T> entries, boolean sorted) {
+		if (!sorted || mHead != null) {
+			super.restoreEntries(entries, sorted);
+			return;
+		}
+		
+		for (int i = 0; i < entries.size(); i++) {
+			Node<T> newNode = createNode(entries.key(i));
+			newNode.increaseFound(entries.count(i) - 1);
+			newNode.setPrev(mTail);
+			if (mTail == null) {
+				mHead = newNode;
+			}
+			else {
+				mTail.setNext(newNode);
+			}
+			mTail = newNode;
+			mLength += entries.count(i);
+		}
+	} // end of restoreEntries()
+	
+	
+	/**
+     * Walks the list from head to tail.
+     */
+	public EntryIterator<T> entryIterator() {
+		return new EntryIterator<T>() {
+			private Node<T> nextNode = mHead;
+			private int found = 0;
+			
+			public boolean hasNext() {
+				return nextNode != null;
+			}
+			
+			public T next() {
+				if (nextNode == null) {
+					throw new NoSuchElementException();
+				}
+				T value = nextNode.getValue();
+				found = nextNode.getFound();
+				nextNode = nextNode.getNext();
+				return value;
+			}
+			
+			public int count() {
+				return found;
+			}
+		};
+	} // end of entryIterator()
+
+
+	public void setCostCounters(CostCounters counters) {
+		mCounters = counters;
+	} // end of setCostCounters()
+
+
+	private int compare(T value, T item) {
+		if (mCounters != null) {
+			mCounters.mComparisons++;
+		}
+		return value.compareTo(item);
+	} // end of compare()
+
+
+	/**
+	 * Counts a visit to node, if there is one, before it is examined.
+	 */
+	private Node<T> visit(Node<T> node) {
+		if (node != null && mCounters != null) {
+			mCounters.mNodesVisited++;
+		}
+		return node;
+	} // end of visit()
+
+
+	private Node<T> next(Node<T> node) {
+		return visit(node.getNext());
+	} // end of next()
+
+
+	private Node<T> createNode(T value) {
+		if (mCounters != null) {
+			mCounters.mAllocations++;
+		}
+		return new Node<T>(value);
+	} // end of createNode()
+
+
 	/**
      * @return String representation of the list.
      */
@@ -298,6 +517,10 @@ public class SortedLinkedListMultiset<T extends Comparable<T>> extends Multiset<
         public void decreaseFound() {
         	mNumber--;
         }
+        
+        public void increaseFound(int number) {
+        	mNumber += number;
+        }
     } // end of inner class Node
 	
 } // end of class SortedLinkedListMultiset
\ No newline at end of file
@@ -0,0 +1,169 @@
+/**
+ * Summary statistics for benchmark samples: mean, standard deviation and
+ * Student's t confidence intervals, reported the same way JMH reports its
+ * score error.
+ */
+public class Statistics
+{
+	/** Confidence level of the reported error bounds, as in JMH. */
+	public static final double DEFAULT_CONFIDENCE = 0.999;
+
+
+	/**
+	 * @return Arithmetic mean of values, NaN if there are none.
+	 */
+	public static double mean(double[] values) {
+		if (values.length == 0) {
+			return Double.NaN;
+		}
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	} // end of mean()
+
+
+	/**
+	 * @return Sample standard deviation of values, NaN if there are fewer than two.
+	 */
+	public static double standardDeviation(double[] values) {
+		if (values.length < 2) {
+			return Double.NaN;
+		}
+		double mean = mean(values);
+		double sumSquares = 0;
+		for (double value : values) {
+			sumSquares += (value - mean) * (value - mean);
+		}
+		return Math.sqrt(sumSquares / (values.length - 1));
+	} // end of standardDeviation()
+
+
+	/**
+	 * Half width of the confidence interval for the mean of values, so the
+	 * interval is mean +- the returned value.
+	 *
+	 * @param confidence Confidence level, e.g. 0.999.
+	 * @return Half width, NaN if there are fewer than two values.
+	 */
+	public static double confidenceHalfWidth(double[] values, double confidence) {
+		int n = values.length;
+		if (n < 2) {
+			return Double.NaN;
+		}
+		double t = studentTQuantile(1 - (1 - confidence) / 2, n - 1);
+		return t * standardDeviation(values) / Math.sqrt(n);
+	} // end of confidenceHalfWidth()
+
+
+	/**
+	 * Inverse of studentTCdf, found by bisection.
+	 *
+	 * @param p Probability, between 0 and 1 exclusive.
+	 * @param df Degrees of freedom.
+	 */
+	public static double studentTQuantile(double p, int df) {
+		if (p == 0.5) {
+			return 0;
+		}
+		if (p < 0.5) {
+			return -studentTQuantile(1 - p, df);
+		}
+
+		double low = 0;
+		double high = 1;
+		while (studentTCdf(high, df) < p) {
+			high *= 2;
+		}
+		for (int i = 0; i < 100 && high - low > 1e-12 * high; i++) {
+			double mid = (low + high) / 2;
+			if (studentTCdf(mid, df) < p) {
+				low = mid;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return (low + high) / 2;
+	} // end of studentTQuantile()
+
+
+	/**
+	 * @return P(T <= t) for Student's t distribution with df degrees of freedom.
+	 */
+	public static double studentTCdf(double t, int df) {
+		double tail = 0.5 * regularizedBeta(df / (df + t * t), df / 2.0, 0.5);
+		return t >= 0 ? 1 - tail : tail;
+	} // end of studentTCdf()
+
+
+	/**
+	 * Regularized incomplete beta function I_x(a, b), by its continued
+	 * fraction (Numerical Recipes, betacf).
+	 */
+	private static double regularizedBeta(double x, double a, double b) {
+		if (x <= 0) {
+			return 0;
+		}
+		if (x >= 1) {
+			return 1;
+		}
+		double front = Math.exp(lnGamma(a + b) - lnGamma(a) - lnGamma(b)
+				+ a * Math.log(x) + b * Math.log(1 - x));
+		// the continued fraction converges quickly only on this side
+		if (x < (a + 1) / (a + b + 2)) {
+			return front * betaContinuedFraction(x, a, b) / a;
+		}
+		return 1 - front * betaContinuedFraction(1 - x, b, a) / b;
+	} // end of regularizedBeta()
+
+
+	private static double betaContinuedFraction(double x, double a, double b) {
+		final double tiny = 1e-300;
+		double c = 1;
+		double d = 1 - (a + b) * x / (a + 1);
+		d = 1 / (Math.abs(d) < tiny ? tiny : d);
+		double h = d;
+		for (int m = 1; m <= 300; m++) {
+			int m2 = 2 * m;
+			// even step
+			double aa = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+			d = 1 + aa * d;
+			d = 1 / (Math.abs(d) < tiny ? tiny : d);
+			c = 1 + aa / c;
+			c = Math.abs(c) < tiny ? tiny : c;
+			h *= d * c;
+			// odd step
+			aa = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+			d = 1 + aa * d;
+			d = 1 / (Math.abs(d) < tiny ? tiny : d);
+			c = 1 + aa / c;
+			c = Math.abs(c) < tiny ? tiny : c;
+			double delta = d * c;
+			h *= delta;
+			if (Math.abs(delta - 1) < 1e-15) {
+				break;
+			}
+		}
+		return h;
+	} // end of betaContinuedFraction()
+
+
+	/**
+	 * Natural log of the gamma function, Lanczos approximation.
+	 */
+	private static double lnGamma(double x) {
+		final double[] coef = { 76.18009172947146, -86.50532032941677, 24.01409824083091,
+				-1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5 };
+		double y = x;
+		double tmp = x + 5.5;
+		tmp -= (x + 0.5) * Math.log(tmp);
+		double series = 1.000000000190015;
+		for (double c : coef) {
+			series += c / ++y;
+		}
+		return -tmp + Math.log(2.5066282746310005 * series / x);
+	} // end of lnGamma()
+
+} // end of class Statistics
@@ -0,0 +1,327 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Compressed radix (patricia) trie implementation of a multiset of Strings.
+ *
+ * Each edge is labelled with a run of characters, so words sharing a prefix
+ * share the nodes for it and chains without branches collapse into one edge.
+ * Counts are held on the node where a word ends.  A lookup reads each
+ * character of the key once, instead of a full String.compareTo per tree
+ * level or a full hash per probe, and print comes out in lexicographic order.
+ */
+public class TrieMultiset extends Multiset<String>
+{
+	/** Root node, holds the empty string. */
+	protected Node mRoot;
+
+	public TrieMultiset() {
+		mRoot = new Node("");
+	} // end of TrieMultiset()
+
+
+	public void add(String item) {
+		Node node = mRoot;
+		int pos = 0;
+		int length = item.length();
+
+		while (pos < length) {
+			Node child = node.getChild(item.charAt(pos));
+			if (child == null) {
+				// no edge starts with this character, hang the rest of the word off node
+				Node leaf = new Node(item.substring(pos));
+				leaf.mCount = 1;
+				node.putChild(leaf);
+				return;
+			}
+
+			String label = child.mLabel;
+			int common = commonPrefix(item, pos, label);
+			if (common < label.length()) {
+				// word diverges or ends inside the edge, split it at the divergence
+				Node middle = new Node(label.substring(0, common));
+				child.mLabel = label.substring(common);
+				middle.putChild(child);
+				node.putChild(middle);
+				child = middle;
+			}
+			pos += common;
+			node = child;
+		}
+
+		node.mCount++;
+	} // end of add()
+
+
+	public int search(String item) {
+		Node node = find(item);
+		return node == null ? 0 : node.mCount;
+	} // end of search()
+
+
+	public void removeOne(String item) {
+		remove(item, 1);
+	} // end of removeOne()
+
+
+	public void removeAll(String item) {
+		remove(item, Integer.MAX_VALUE);
+	} // end of removeAll()
+
+
+	/**
+	 * Pre-order walk with an explicit stack; children are visited in order of
+	 * their first character, which gives lexicographic order.
+	 */
+	public EntryIterator<String> entryIterator() {
+		return new EntryIterator<String>() {
+			/** Nodes on the current path, root first. */
+			private Node[] mPath = new Node[16];
+			/** Index of the next child to visit for each node on the path. */
+			private int[] mNextChild = new int[16];
+			/** Length of mPrefix before each node's label was appended. */
+			private int[] mPrefixLength = new int[16];
+			private int mDepth = 0;
+			/** Characters spelled by the current path. */
+			private final StringBuilder mPrefix = new StringBuilder();
+			/** Next word found by the look-ahead, null if not found yet. */
+			private String mNextKey = null;
+			private int mNextCount = 0;
+			private int mCount = 0;
+
+			{
+				push(mRoot);
+			}
+
+			public boolean hasNext() {
+				while (mNextKey == null && mDepth > 0) {
+					int top = mDepth - 1;
+					Node node = mPath[top];
+					if (mNextChild[top] < node.mChildNum) {
+						push(node.mChildren[mNextChild[top]++]);
+					}
+					else {
+						mPrefix.setLength(mPrefixLength[top]);
+						mPath[top] = null;
+						mDepth--;
+					}
+				}
+				return mNextKey != null;
+			}
+
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				String key = mNextKey;
+				mCount = mNextCount;
+				mNextKey = null;
+				return key;
+			}
+
+			public int count() {
+				return mCount;
+			}
+
+			private void push(Node node) {
+				if (mDepth == mPath.length) {
+					mPath = Arrays.copyOf(mPath, mDepth * 2);
+					mNextChild = Arrays.copyOf(mNextChild, mDepth * 2);
+					mPrefixLength = Arrays.copyOf(mPrefixLength, mDepth * 2);
+				}
+				mPath[mDepth] = node;
+				mNextChild[mDepth] = 0;
+				mPrefixLength[mDepth] = mPrefix.length();
+				mDepth++;
+				mPrefix.append(node.mLabel);
+				if (node.mCount > 0) {
+					mNextKey = mPrefix.toString();
+					mNextCount = node.mCount;
+				}
+			}
+		};
+	} // end of entryIterator()
+
+
+	/**
+	 * Children are ordered by character, so iteration follows String.compareTo().
+	 */
+	public boolean isSorted() {
+		return true;
+	} // end of isSorted()
+
+
+	/**
+	 * @return Node where item ends, or null if item was never added.
+	 */
+	private Node find(String item) {
+		Node node = mRoot;
+		int pos = 0;
+		int length = item.length();
+
+		while (pos < length) {
+			node = node.getChild(item.charAt(pos));
+			if (node == null || !item.startsWith(node.mLabel, pos)) {
+				return null;
+			}
+			pos += node.mLabel.length();
+		}
+		return node;
+	} // end of find()
+
+
+	/**
+	 * Takes up to number instances of item out, pruning and re-merging edges
+	 * once its count reaches zero.
+	 */
+	private void remove(String item, int number) {
+		Node grandParent = null;
+		Node parent = null;
+		Node node = mRoot;
+		int pos = 0;
+		int length = item.length();
+
+		while (pos < length) {
+			grandParent = parent;
+			parent = node;
+			node = node.getChild(item.charAt(pos));
+			if (node == null || !item.startsWith(node.mLabel, pos)) {
+				return;
+			}
+			pos += node.mLabel.length();
+		}
+
+		if (node.mCount == 0) {
+			return;
+		}
+		node.mCount = number >= node.mCount ? 0 : node.mCount - number;
+		if (node.mCount > 0 || node == mRoot) {
+			return;
+		}
+
+		if (node.mChildNum == 0) {
+			parent.removeChild(node.mLabel.charAt(0));
+			// parent may now be a pass-through node that should be merged away
+			if (parent != mRoot && parent.mCount == 0 && parent.mChildNum == 1) {
+				mergeWithChild(grandParent, parent);
+			}
+		}
+		else if (node.mChildNum == 1) {
+			mergeWithChild(parent, node);
+		}
+	} // end of remove()
+
+
+	/**
+	 * Replaces node, which has no count and a single child, by that child with
+	 * the two edge labels joined.
+	 */
+	private void mergeWithChild(Node parent, Node node) {
+		Node child = node.mChildren[0];
+		child.mLabel = node.mLabel + child.mLabel;
+		parent.putChild(child);
+	} // end of mergeWithChild()
+
+
+	private static int commonPrefix(String item, int pos, String label) {
+		int max = Math.min(label.length(), item.length() - pos);
+		int i = 0;
+		while (i < max && item.charAt(pos + i) == label.charAt(i)) {
+			i++;
+		}
+		return i;
+	} // end of commonPrefix()
+
+
+	/**
+	 * Node type, inner private class.  Children are kept sorted by the first
+	 * character of their edge label.
+	 */
+	private static class Node
+	{
+		/** Characters on the edge from the parent to this node. */
+		private String mLabel;
+		/** Number of instances of the word ending here, 0 if none. */
+		private int mCount;
+		/** First character of each child's label, ascending. */
+		private char[] mFirstChars;
+		/** Child nodes, parallel to mFirstChars. */
+		private Node[] mChildren;
+		/** Number of children in use. */
+		private int mChildNum;
+
+		public Node(String label) {
+			mLabel = label;
+			mCount = 0;
+			mChildNum = 0;
+		}
+
+		public Node getChild(char first) {
+			int index = indexOf(first);
+			return index >= 0 ? mChildren[index] : null;
+		}
+
+		/**
+		 * Inserts child, replacing any existing child with the same first character.
+		 */
+		public void putChild(Node child) {
+			char first = child.mLabel.charAt(0);
+			int index = indexOf(first);
+			if (index >= 0) {
+				mChildren[index] = child;
+				return;
+			}
+
+			if (mChildren == null) {
+				mFirstChars = new char[2];
+				mChildren = new Node[2];
+			}
+			else if (mChildNum == mChildren.length) {
+				mFirstChars = Arrays.copyOf(mFirstChars, mChildNum * 2);
+				mChildren = Arrays.copyOf(mChildren, mChildNum * 2);
+			}
+
+			index = ~index;
+			System.arraycopy(mFirstChars, index, mFirstChars, index + 1, mChildNum - index);
+			System.arraycopy(mChildren, index, mChildren, index + 1, mChildNum - index);
+			mFirstChars[index] = first;
+			mChildren[index] = child;
+			mChildNum++;
+		}
+
+		public void removeChild(char first) {
+			int index = indexOf(first);
+			if (index >= 0) {
+				mChildNum--;
+				System.arraycopy(mFirstChars, index + 1, mFirstChars, index, mChildNum - index);
+				System.arraycopy(mChildren, index + 1, mChildren, index, mChildNum - index);
+				mChildren[mChildNum] = null;
+			}
+		}
+
+		/**
+		 * Binary search over the first characters.
+		 *
+		 * @return Index of the child, or the complement of its insertion point.
+		 */
+		private int indexOf(char first) {
+			int low = 0;
+			int high = mChildNum - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				char midChar = mFirstChars[mid];
+				if (midChar < first) {
+					low = mid + 1;
+				}
+				else if (midChar > first) {
+					high = mid - 1;
+				}
+				else {
+					return mid;
+				}
+			}
+			return ~low;
+		}
+	} // end of inner class Node
+
+} // end of class TrieMultiset
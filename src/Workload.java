@@ -0,0 +1,393 @@
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Decoded list of multiset operations, and the compact binary file format
+ * it is stored in.
+ *
+ * Each distinct word is stored once in a dictionary block and each operation
+ * is an opcode byte followed by the varint id of its word, so a file is read
+ * with no tokenising and one String per distinct word.  The layout is:
+ *
+ *   magic "MSWL", version byte
+ *   varint word count, then per word: varint byte length, UTF-8 bytes
+ *   varint operation count, then per operation: opcode byte, varint word id
+ *
+ * P and Q carry no word id.  Opcodes are the CommandParser operation codes.
+ */
+public class Workload
+{
+	/** File name extension for workload files. */
+	public static final String EXTENSION = ".wl";
+
+	/** First bytes of every workload file, "MSWL". */
+	static final int MAGIC = 0x4D53574C;
+	static final byte VERSION = 1;
+
+	/** Distinct words, indexed by word id. */
+	protected String[] mWords;
+	protected int mWordNum;
+	/** Opcode of each operation. */
+	protected byte[] mOps;
+	/** Word id of each operation, -1 for P and Q. */
+	protected int[] mWordIds;
+	protected int mOpNum;
+	/** Word to id while the workload is being built, null once read from a file. */
+	private HashMap<String, Integer> mWordIndex;
+
+
+	public Workload() {
+		mWords = new String[16];
+		mWordNum = 0;
+		mOps = new byte[16];
+		mWordIds = new int[16];
+		mOpNum = 0;
+		mWordIndex = new HashMap<String, Integer>();
+	} // end of Workload()
+
+
+	/**
+	 * Appends one operation.
+	 *
+	 * @param op CommandParser.ADD, SEARCH, REMOVE_ONE, REMOVE_ALL, PRINT or QUIT.
+	 * @param word Element the operation applies to, ignored for PRINT and QUIT.
+	 */
+	public void add(int op, String word) {
+		if (op < CommandParser.ADD || op > CommandParser.QUIT) {
+			throw new IllegalArgumentException("Unknown operation code " + op);
+		}
+		if (mOpNum == mOps.length) {
+			mOps = Arrays.copyOf(mOps, Math.max(16, mOpNum * 2));
+			mWordIds = Arrays.copyOf(mWordIds, Math.max(16, mOpNum * 2));
+		}
+		mOps[mOpNum] = (byte) op;
+		mWordIds[mOpNum] = hasWord(op) ? wordId(word) : -1;
+		mOpNum++;
+	} // end of add()
+
+
+	/**
+	 * @return Opcode for a text command such as "A" or "ro", or CommandParser.UNKNOWN.
+	 */
+	public static int opcode(String command) {
+		switch (command.toUpperCase()) {
+			case "A":
+				return CommandParser.ADD;
+			case "S":
+				return CommandParser.SEARCH;
+			case "RO":
+				return CommandParser.REMOVE_ONE;
+			case "RA":
+				return CommandParser.REMOVE_ALL;
+			case "P":
+				return CommandParser.PRINT;
+			case "Q":
+				return CommandParser.QUIT;
+			default:
+				return CommandParser.UNKNOWN;
+		}
+	} // end of opcode()
+
+
+	/**
+	 * @return Number of operations.
+	 */
+	public int size() {
+		return mOpNum;
+	} // end of size()
+
+
+	/**
+	 * @return Opcode of operation i.
+	 */
+	public int op(int i) {
+		return mOps[i];
+	} // end of op()
+
+
+	/**
+	 * @return Word of operation i, null for P and Q.
+	 */
+	public String word(int i) {
+		int id = mWordIds[i];
+		return id < 0 ? null : mWords[id];
+	} // end of word()
+
+
+	/**
+	 * @param elapsedNanos Time taken to replay this workload.
+	 * @return Throughput and time per operation of the replay, for reports.
+	 */
+	public String rate(long elapsedNanos) {
+		double opsPerSec = mOpNum * 1e9 / Math.max(1, elapsedNanos);
+		double nsPerOp = (double) elapsedNanos / Math.max(1, mOpNum);
+		return String.format("%.0f ops/sec, %.1f ns/op", opsPerSec, nsPerOp);
+	} // end of rate()
+
+
+	/**
+	 * Executes the operations on multiset the way the command drivers do: runs
+	 * of A, S and RA go through the bulk operations, P prints to System.out
+	 * and Q stops the replay.
+	 *
+	 * @param multiset The multiset which the operations are executed on.
+	 * @param searchOutWriter Where to output the results of search, may be null.
+	 * @return Sum of all search results, for benchmarks to consume.
+	 */
+	public int replay(Multiset<String> multiset, PrintWriter searchOutWriter) {
+		return replay(multiset, searchOutWriter, null);
+	} // end of replay()
+
+
+	/**
+	 * Executes the operations on multiset, optionally timing each one.
+	 *
+	 * @param multiset The multiset which the operations are executed on.
+	 * @param searchOutWriter Where to output the results of search, may be null.
+	 * @param latencies Histograms from LatencyHistogram.forOperations() to record
+	 *        the latency of every A, S, RO and RA in, which are then executed one
+	 *        at a time instead of in batches.  Null for batched execution.
+	 * @return Sum of all search results, for benchmarks to consume.
+	 */
+	public int replay(Multiset<String> multiset, PrintWriter searchOutWriter, LatencyHistogram[] latencies) {
+		if (latencies != null) {
+			int found = 0;
+			for (int i = 0; i < mOpNum; i++) {
+				int op = mOps[i];
+				if (op == CommandParser.PRINT) {
+					multiset.print(System.out);
+				}
+				else if (op == CommandParser.QUIT) {
+					break;
+				}
+				else {
+					found += OperationBatch.executeTimed(op, mWords[mWordIds[i]], multiset, searchOutWriter, latencies);
+				}
+			}
+			return found;
+		}
+
+		OperationBatch batch = new OperationBatch();
+		int found = 0;
+		for (int i = 0; i < mOpNum; i++) {
+			int op = mOps[i];
+			if (OperationBatch.isBatchable(op)) {
+				found += batch.queue(op, mWords[mWordIds[i]], multiset, searchOutWriter);
+				continue;
+			}
+
+			found += batch.flush(multiset, searchOutWriter);
+			if (op == CommandParser.REMOVE_ONE) {
+				multiset.removeOne(mWords[mWordIds[i]]);
+			}
+			else if (op == CommandParser.PRINT) {
+				multiset.print(System.out);
+			}
+			else if (op == CommandParser.QUIT) {
+				break;
+			}
+		}
+		found += batch.flush(multiset, searchOutWriter);
+		return found;
+	} // end of replay()
+
+
+	/**
+	 * Reads the well-formed commands of a text command file; malformed lines
+	 * are reported on System.err and skipped.
+	 */
+	public static Workload fromCommands(CommandParser parser) throws IOException {
+		Workload workload = new Workload();
+		int op;
+		while ((op = parser.next()) != CommandParser.EOF) {
+			int expectedTokens = hasWord(op) ? 2 : 1;
+			if (op == CommandParser.UNKNOWN) {
+				System.err.println(parser.lineNumber() + ": Unknown command.");
+			}
+			else if (parser.tokenCount() != expectedTokens) {
+				System.err.println(parser.lineNumber() + ": not enough tokens.");
+			}
+			else {
+				workload.add(op, hasWord(op) ? parser.key() : null);
+			}
+		}
+		return workload;
+	} // end of fromCommands()
+
+
+	/**
+	 * Loads a workload file, or parses a text command file, into memory.
+	 */
+	public static Workload load(String fileName) throws IOException {
+		if (isWorkloadFile(fileName)) {
+			return read(fileName);
+		}
+		try (CommandParser parser = CommandParser.open(fileName)) {
+			return fromCommands(parser);
+		}
+	} // end of load()
+
+
+	/**
+	 * @return True if fileName starts with the workload file magic number.
+	 */
+	public static boolean isWorkloadFile(String fileName) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(fileName))) {
+			return in.readInt() == MAGIC;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	} // end of isWorkloadFile()
+
+
+	/**
+	 * Reads a workload file through a memory mapping.
+	 *
+	 * @throws IOException If the file cannot be read, is not a workload file, or is
+	 *         truncated or corrupt.
+	 */
+	public static Workload read(String fileName) throws IOException {
+		ByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(new File(fileName).toPath())) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(fileName + ": workload file larger than 2 GB.");
+			}
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (buf.remaining() < 5 || buf.getInt() != MAGIC) {
+			throw new IOException(fileName + " is not a workload file.");
+		}
+		if (buf.get() != VERSION) {
+			throw new IOException(fileName + " has an unsupported workload version.");
+		}
+
+		Workload workload = new Workload();
+		workload.mWordIndex = null;
+
+		try {
+			int wordNum = readVarint(buf);
+			// every word and operation takes at least one byte
+			if (wordNum < 0 || wordNum > buf.remaining()) {
+				throw new IOException(fileName + ": corrupt workload file.");
+			}
+			workload.mWords = new String[wordNum];
+			byte[] bytes = new byte[64];
+			for (int i = 0; i < wordNum; i++) {
+				int length = readVarint(buf);
+				if (length < 0) {
+					throw new IOException(fileName + ": corrupt workload file.");
+				}
+				if (length > bytes.length) {
+					bytes = new byte[Math.max(length, bytes.length * 2)];
+				}
+				buf.get(bytes, 0, length);
+				workload.mWords[i] = decode(bytes, length);
+			}
+			workload.mWordNum = wordNum;
+
+			int opNum = readVarint(buf);
+			if (opNum < 0 || opNum > buf.remaining()) {
+				throw new IOException(fileName + ": corrupt workload file.");
+			}
+			workload.mOps = new byte[opNum];
+			workload.mWordIds = new int[opNum];
+			for (int i = 0; i < opNum; i++) {
+				byte op = buf.get();
+				if (op < 0 || op > CommandParser.QUIT) {
+					throw new IOException(fileName + ": unknown operation code " + op + " at operation " + i + ".");
+				}
+				workload.mOps[i] = op;
+				if (hasWord(op)) {
+					int id = readVarint(buf);
+					if (id < 0 || id >= wordNum) {
+						throw new IOException(fileName + ": word id " + id + " out of range.");
+					}
+					workload.mWordIds[i] = id;
+				}
+				else {
+					workload.mWordIds[i] = -1;
+				}
+			}
+			workload.mOpNum = opNum;
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException(fileName + ": truncated workload file.");
+		}
+
+		return workload;
+	} // end of read()
+
+
+	/**
+	 * Writes the workload in the binary format.
+	 */
+	public void write(String fileName) throws IOException {
+		try (WorkloadWriter out = new WorkloadWriter(fileName, mWords, mWordNum, mOpNum)) {
+			for (int i = 0; i < mOpNum; i++) {
+				out.write(mOps[i], mWordIds[i]);
+			}
+		}
+	} // end of write()
+
+
+	private int wordId(String word) {
+		if (mWordIndex == null) {
+			// read from a file, rebuild the index before adding to it
+			mWordIndex = new HashMap<String, Integer>();
+			for (int i = 0; i < mWordNum; i++) {
+				mWordIndex.put(mWords[i], i);
+			}
+		}
+
+		Integer id = mWordIndex.get(word);
+		if (id != null) {
+			return id;
+		}
+		if (mWordNum == mWords.length) {
+			mWords = Arrays.copyOf(mWords, Math.max(16, mWordNum * 2));
+		}
+		mWords[mWordNum] = word;
+		mWordIndex.put(word, mWordNum);
+		return mWordNum++;
+	} // end of wordId()
+
+
+	private static boolean hasWord(int op) {
+		return op == CommandParser.ADD || op == CommandParser.SEARCH
+				|| op == CommandParser.REMOVE_ONE || op == CommandParser.REMOVE_ALL;
+	} // end of hasWord()
+
+
+	private static String decode(byte[] bytes, int length) {
+		for (int i = 0; i < length; i++) {
+			if (bytes[i] < 0) {
+				return new String(bytes, 0, length, StandardCharsets.UTF_8);
+			}
+		}
+		return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+	} // end of decode()
+
+
+	/**
+	 * Reads an unsigned LEB128 varint, as written by WorkloadWriter.
+	 */
+	private static int readVarint(ByteBuffer buf) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buf.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in workload file.");
+	} // end of readVarint()
+
+} // end of class Workload
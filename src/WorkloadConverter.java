@@ -0,0 +1,53 @@
+import java.io.*;
+
+/**
+ * Converts text command files (e.g. Test1_50000_A_1.0_RO_0.0_S_0.0.txt) into
+ * binary workload files that MultiTester and PerformanceAnalysis replay
+ * without parsing.  Each input file x.txt is written to x.wl.
+ */
+public class WorkloadConverter
+{
+	/** Name of class, used in error messages. */
+	protected static final String progName = "WorkloadConverter";
+
+
+	/**
+	 * Print help/usage message.
+	 */
+	public static void usage(String progName) {
+		System.err.println(progName + ": <command file> [more command files ...]");
+		System.exit(1);
+	} // end of usage
+
+
+	/**
+	 * @return fileName with its .txt extension, if any, replaced by the workload extension.
+	 */
+	public static String workloadFileName(String fileName) {
+		if (fileName.endsWith(".txt")) {
+			fileName = fileName.substring(0, fileName.length() - ".txt".length());
+		}
+		return fileName + Workload.EXTENSION;
+	} // end of workloadFileName()
+
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			usage(progName);
+		}
+
+		for (String inFilename : args) {
+			String outFilename = workloadFileName(inFilename);
+			try (CommandParser parser = CommandParser.open(inFilename)) {
+				Workload workload = Workload.fromCommands(parser);
+				workload.write(outFilename);
+				System.out.println(inFilename + " -> " + outFilename + " (" + workload.size() + " operations, "
+						+ new File(inFilename).length() + " -> " + new File(outFilename).length() + " bytes)");
+			}
+			catch (IOException e) {
+				System.err.println(inFilename + ": " + e.getMessage());
+			}
+		}
+	} // end of main()
+
+} // end of class WorkloadConverter
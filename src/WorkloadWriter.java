@@ -0,0 +1,123 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a workload file one operation at a time, so workloads of any length
+ * can be written without holding them in memory.  The dictionary and the
+ * operation count go first, as the format requires, so both must be known
+ * when the writer is opened.  See Workload for the layout.
+ *
+ * A file can also be written in parts: the header with writeHeader(), and
+ * runs of operations by writers from operationsOnly(), concatenated in order.
+ */
+public class WorkloadWriter implements Closeable
+{
+	private final OutputStream mOut;
+	/** Number of words in the dictionary. */
+	private final int mWordNum;
+	/** Operations still to be written. */
+	private long mRemaining;
+
+
+	/**
+	 * Opens fileName and writes the header, the dictionary and the count.
+	 *
+	 * @param words Dictionary, operations refer to words by index in it.
+	 * @param wordNum Number of words of words to write.
+	 * @param opNum Number of operations that will be written.
+	 */
+	public WorkloadWriter(String fileName, String[] words, int wordNum, int opNum) throws IOException {
+		this(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16), wordNum, opNum);
+		writeHeader(mOut, words, wordNum, opNum);
+	} // end of WorkloadWriter()
+
+
+	private WorkloadWriter(OutputStream out, int wordNum, int opNum) {
+		mOut = out;
+		mWordNum = wordNum;
+		mRemaining = opNum;
+	} // end of WorkloadWriter()
+
+
+	/**
+	 * @param out Where the operations go, closed by close().
+	 * @param wordNum Number of words in the dictionary of the whole file.
+	 * @param opNum Number of operations that will be written.
+	 * @return Writer of operations only, for a part of a file.
+	 */
+	public static WorkloadWriter operationsOnly(OutputStream out, int wordNum, int opNum) {
+		return new WorkloadWriter(out, wordNum, opNum);
+	} // end of operationsOnly()
+
+
+	/**
+	 * Writes the magic number, version, dictionary and operation count.
+	 *
+	 * @param opNum Number of operations of the whole file.
+	 */
+	public static void writeHeader(OutputStream out, String[] words, int wordNum, int opNum) throws IOException {
+		out.write(Workload.MAGIC >>> 24);
+		out.write(Workload.MAGIC >>> 16);
+		out.write(Workload.MAGIC >>> 8);
+		out.write(Workload.MAGIC);
+		out.write(Workload.VERSION);
+
+		writeVarint(out, wordNum);
+		for (int i = 0; i < wordNum; i++) {
+			byte[] bytes = words[i].getBytes(StandardCharsets.UTF_8);
+			writeVarint(out, bytes.length);
+			out.write(bytes);
+		}
+		writeVarint(out, opNum);
+	} // end of writeHeader()
+
+
+	/**
+	 * Appends one operation.
+	 *
+	 * @param op CommandParser.ADD, SEARCH, REMOVE_ONE, REMOVE_ALL, PRINT or QUIT.
+	 * @param wordId Index of the operation's word in the dictionary, ignored
+	 *        for PRINT and QUIT.
+	 */
+	public void write(int op, int wordId) throws IOException {
+		if (op < CommandParser.ADD || op > CommandParser.QUIT) {
+			throw new IllegalArgumentException("Unknown operation code " + op);
+		}
+		if (mRemaining == 0) {
+			throw new IOException("More operations written than the count in the header.");
+		}
+		mOut.write(op);
+		if (op != CommandParser.PRINT && op != CommandParser.QUIT) {
+			if (wordId < 0 || wordId >= mWordNum) {
+				throw new IllegalArgumentException("Word id " + wordId + " out of range.");
+			}
+			writeVarint(mOut, wordId);
+		}
+		mRemaining--;
+	} // end of write()
+
+
+	/**
+	 * @throws IOException If fewer operations were written than the count in the header.
+	 */
+	public void close() throws IOException {
+		mOut.close();
+		if (mRemaining != 0) {
+			throw new IOException(mRemaining + " fewer operations written than the count in the header.");
+		}
+	} // end of close()
+
+
+	/**
+	 * Unsigned LEB128: seven bits per byte, low bits first, high bit set on
+	 * all but the last byte.
+	 */
+	private static void writeVarint(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	} // end of writeVarint()
+
+} // end of class WorkloadWriter